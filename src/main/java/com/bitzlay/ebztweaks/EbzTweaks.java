@@ -3,15 +3,20 @@ package com.bitzlay.ebztweaks;
 
 import com.bitzlay.ebztweaks.map.core.EfficientMapScreen;
 import com.bitzlay.ebztweaks.map.core.KeyBindings;
+import com.bitzlay.ebztweaks.map.core.MapConfig;
+import com.bitzlay.ebztweaks.map.core.TextureColorLoader;
 import com.mojang.logging.LogUtils;
 import net.minecraft.client.Minecraft;
 import net.minecraftforge.client.event.InputEvent;
+import net.minecraftforge.client.event.RegisterClientReloadListenersEvent;
 import net.minecraftforge.client.event.RegisterGuiOverlaysEvent;
 import net.minecraftforge.client.event.RegisterKeyMappingsEvent;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLClientSetupEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.slf4j.Logger;
@@ -27,6 +32,8 @@ public class EbzTweaks {
         IEventBus modEventBus = FMLJavaModLoadingContext.get().getModEventBus();
         LOGGER.info("Iniciando registro de EbzTweaks");
 
+        ModLoadingContext.get().registerConfig(ModConfig.Type.CLIENT, MapConfig.SPEC);
+
         // Registrar MenuTypes
         MinecraftForge.EVENT_BUS.register(this);
 
@@ -34,6 +41,7 @@ public class EbzTweaks {
         modEventBus.addListener(this::clientSetup);
         modEventBus.addListener(this::registerOverlays);
         modEventBus.addListener(this::registerKeys);
+        modEventBus.addListener(this::registerReloadListeners);
 
         // Registrar eventos de forge
 
@@ -50,6 +58,10 @@ public class EbzTweaks {
         event.register(KeyBindings.OPEN_MAP);
     }
 
+    private void registerReloadListeners(RegisterClientReloadListenersEvent event) {
+        event.registerReloadListener(new TextureColorLoader());
+    }
+
     private void clientSetup(final FMLClientSetupEvent event) {
         LOGGER.info("Client setup starting");
         event.enqueueWork(() -> {
@@ -0,0 +1,134 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.biome.Biome;
+
+/**
+ * Tinte por bioma de hierba, follaje y agua. Los biomas de un chunk se muestrean una vez
+ * por quart (4x4 columnas) y el tinte de cada columna se interpola entre los quarts
+ * vecinos. Solo trabaja con colores base ya resueltos, asi que sirve tanto tras un
+ * escaneo como para volver a tintar una tesela guardada.
+ */
+public final class BiomeTint {
+    public static final byte NONE = 0;
+    public static final byte GRASS = 1;
+    public static final byte FOLIAGE = 2;
+    public static final byte WATER = 3;
+
+    public static final int QUARTS = 4;
+    public static final int SAMPLES = QUARTS * QUARTS;
+
+    // Tintes con los que estan hechos los colores fijos de la paleta
+    static final int DEFAULT_GRASS = 0x91BD59;
+    static final int DEFAULT_FOLIAGE = 0x48B518;
+    static final int DEFAULT_WATER = 0x3F76E4;
+
+    private static final int CHUNK_SIZE = ChunkSnapshot.CHUNK_SIZE;
+
+    private BiomeTint() {
+    }
+
+    static int defaultTint(byte kind) {
+        return switch (kind) {
+            case GRASS -> DEFAULT_GRASS;
+            case FOLIAGE -> DEFAULT_FOLIAGE;
+            case WATER -> DEFAULT_WATER;
+            default -> 0xFFFFFF;
+        };
+    }
+
+    /**
+     * Tinta {@code colors} (colores base, indice z * 16 + x) en el sitio.
+     *
+     * @param kinds  tipo de tinte de cada columna
+     * @param biomes bioma de cada quart (indice qz * 4 + qx); los {@code null} usan el tinte por defecto
+     */
+    public static void apply(ChunkPos pos, int[] colors, byte[] kinds, Biome[] biomes) {
+        if (!MapConfig.BIOME_TINT.get()) {
+            for (int i = 0; i < colors.length; i++) {
+                if (kinds[i] != NONE && colors[i] != 0) {
+                    colors[i] = multiply(colors[i], defaultTint(kinds[i]));
+                }
+            }
+            return;
+        }
+
+        int[][] tints = new int[WATER + 1][];
+        for (int i = 0; i < colors.length; i++) {
+            byte kind = kinds[i];
+            if (kind == NONE || colors[i] == 0) {
+                continue;
+            }
+            if (tints[kind] == null) {
+                tints[kind] = sampleTints(pos, kind, biomes);
+            }
+            colors[i] = multiply(colors[i], interpolate(tints[kind], i & (CHUNK_SIZE - 1), i >> 4));
+        }
+    }
+
+    private static int[] sampleTints(ChunkPos pos, byte kind, Biome[] biomes) {
+        int[] tints = new int[SAMPLES];
+        for (int q = 0; q < SAMPLES; q++) {
+            Biome biome = biomes[q];
+            if (biome == null) {
+                tints[q] = defaultTint(kind);
+                continue;
+            }
+            double x = pos.getMinBlockX() + (q & (QUARTS - 1)) * 4 + 2;
+            double z = pos.getMinBlockZ() + (q / QUARTS) * 4 + 2;
+            tints[q] = switch (kind) {
+                case GRASS -> biome.getGrassColor(x, z);
+                case FOLIAGE -> biome.getFoliageColor();
+                default -> biome.getWaterColor();
+            };
+        }
+        return tints;
+    }
+
+    /**
+     * Interpolacion bilineal entre los centros de los quarts, sin salir del chunk.
+     */
+    private static int interpolate(int[] tints, int x, int z) {
+        float fx = Math.max(0, Math.min(QUARTS - 1, (x - 1.5f) / 4f));
+        float fz = Math.max(0, Math.min(QUARTS - 1, (z - 1.5f) / 4f));
+        int x0 = (int) fx;
+        int z0 = (int) fz;
+        int x1 = Math.min(QUARTS - 1, x0 + 1);
+        int z1 = Math.min(QUARTS - 1, z0 + 1);
+        float tx = fx - x0;
+        float tz = fz - z0;
+
+        int c00 = tints[z0 * QUARTS + x0];
+        int c10 = tints[z0 * QUARTS + x1];
+        int c01 = tints[z1 * QUARTS + x0];
+        int c11 = tints[z1 * QUARTS + x1];
+
+        int result = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            float top = ((c00 >> shift) & 0xFF) * (1 - tx) + ((c10 >> shift) & 0xFF) * tx;
+            float bottom = ((c01 >> shift) & 0xFF) * (1 - tx) + ((c11 >> shift) & 0xFF) * tx;
+            result |= Math.round(top * (1 - tz) + bottom * tz) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Multiplica los canales RGB de {@code color} (0xAARRGGBB) por {@code tint} (0xRRGGBB).
+     */
+    static int multiply(int color, int tint) {
+        int r = ((color >> 16) & 0xFF) * ((tint >> 16) & 0xFF) / 255;
+        int g = ((color >> 8) & 0xFF) * ((tint >> 8) & 0xFF) / 255;
+        int b = (color & 0xFF) * (tint & 0xFF) / 255;
+        return (color & 0xFF000000) | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Inversa aproximada de {@link #multiply}: quita el tinte por defecto de un color fijo.
+     */
+    static int divide(int color, int tint) {
+        int r = Math.min(255, ((color >> 16) & 0xFF) * 255 / Math.max(1, (tint >> 16) & 0xFF));
+        int g = Math.min(255, ((color >> 8) & 0xFF) * 255 / Math.max(1, (tint >> 8) & 0xFF));
+        int b = Math.min(255, (color & 0xFF) * 255 / Math.max(1, tint & 0xFF));
+        return (color & 0xFF000000) | r << 16 | g << 8 | b;
+    }
+}
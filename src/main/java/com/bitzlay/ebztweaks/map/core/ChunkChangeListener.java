@@ -0,0 +1,18 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+/**
+ * Recibe los cambios de bloques de los chunks cargados en el cliente (ver {@link MapEvents}).
+ * Se llama siempre en el hilo del cliente.
+ */
+public interface ChunkChangeListener {
+    /**
+     * Algun bloque del chunk cambio desde el ultimo tick.
+     */
+    void onChunkChanged(LevelChunk chunk);
+
+    default void onChunkUnloaded(ChunkPos pos) {
+    }
+}
@@ -0,0 +1,349 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.tags.FluidTags;
+import net.minecraft.util.BitStorage;
+import net.minecraft.util.Mth;
+import net.minecraft.util.SimpleBitStorage;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.GlobalPalette;
+import net.minecraft.world.level.chunk.Palette;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.chunk.PalettedContainerRO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Colorea las 256 columnas de un {@link ChunkSnapshot} recorriendo directamente sus secciones.
+ * Las secciones vacias se saltan y el color se resuelve una sola vez por entrada
+ * de la paleta de cada seccion, no por bloque: en el bucle solo se leen los indices
+ * de paleta de cada bloque. No toca el mundo, asi que puede ejecutarse en cualquier hilo.
+ */
+public final class ChunkColorizer {
+    private static final int CHUNK_SIZE = ChunkSnapshot.CHUNK_SIZE;
+    private static final int COLUMNS = ChunkSnapshot.COLUMNS;
+    private static final int PROBE_DEPTH = 8;
+
+    private ChunkColorizer() {
+    }
+
+    /**
+     * Altura mas baja que puede visitar la sonda de una columna. Bajo el agua (que cuenta
+     * para MOTION_BLOCKING) se baja hasta {@link DepthCompositor#MAX_WATER_DEPTH} para encontrar el fondo.
+     */
+    static int probeBottom(int surfaceY, int motionY, int minY) {
+        return Math.max(minY, Math.min(surfaceY - PROBE_DEPTH, motionY - DepthCompositor.MAX_WATER_DEPTH));
+    }
+
+    /**
+     * Rellena {@code colors} (indice z * 16 + x) con el color base, sin tinte de bioma,
+     * {@code tints} con el tipo de tinte del bloque que dio el color y {@code heights} con
+     * su altura ({@code y & 0xFF}). Si la columna empieza por una capa translucida (agua,
+     * cristal...), el recorrido sigue hasta el primer bloque opaco y deja su color en
+     * {@code floors} y la distancia en {@code depths}, para componerlos despues con
+     * {@link DepthCompositor}. Si la copia es bajo techo (capa de cuevas o dimension con
+     * techo) la columna empieza arriba del rango: se saltan los bloques hasta el primer hueco
+     * de aire y se colorea el suelo que haya debajo. Los bloques sin color de mapa propio
+     * (antorchas, railes, paneles...) se atraviesan y solo dan el gris por defecto si la
+     * columna no tiene nada mas. Si la copia se tomo solo para algunas columnas, el resto queda a 0.
+     * Devuelve cuantas columnas tienen color.
+     */
+    public static int colorize(ChunkSnapshot snapshot, int[] colors, byte[] tints, byte[] heights,
+                               int[] floors, byte[] depths) {
+        int minY = snapshot.getMinY();
+        boolean underCeiling = snapshot.isUnderCeiling();
+        boolean walk = !underCeiling && snapshot.getMode() == SurfaceScanner.Mode.COLUMN_WALK;
+        int[] topY = new int[COLUMNS];
+        int[] bottomY = new int[COLUMNS];
+        int[] layerY = new int[COLUMNS];
+        // Primer bloque sin color propio (antorchas, railes...): solo se usa si no hay nada mas
+        int[] fallbackColors = new int[COLUMNS];
+        int[] fallbackY = new int[COLUMNS];
+        boolean[] resolved = new boolean[COLUMNS];
+        // Bajo techo: ya se paso el techo y se encontro aire
+        boolean[] open = new boolean[COLUMNS];
+        int remaining = 0;
+        int highestTop = minY - 1;
+
+        BitSet columns = snapshot.getColumns();
+
+        for (int i = 0; i < COLUMNS; i++) {
+            int top = walk || underCeiling ? snapshot.getScanTopY() : snapshot.getSurfaceHeight(i);
+            colors[i] = 0;
+            tints[i] = BiomeTint.NONE;
+            heights[i] = 0;
+            floors[i] = 0;
+            depths[i] = DepthCompositor.NO_LAYER;
+            topY[i] = top;
+            if (underCeiling) {
+                bottomY[i] = snapshot.getScanBottomY();
+            } else {
+                bottomY[i] = walk ? minY : probeBottom(top, snapshot.getMotionHeight(i), minY);
+            }
+
+            if (top < minY || (columns != null && !columns.get(i))) {
+                resolved[i] = true;
+            } else {
+                remaining++;
+                highestTop = Math.max(highestTop, top);
+            }
+        }
+
+        for (int s = snapshot.getSectionCount() - 1; s >= 0 && remaining > 0; s--) {
+            PalettedContainer<BlockState> states = snapshot.getSection(s);
+            int sectionMinY = snapshot.getSectionMinY(s);
+            if (sectionMinY > highestTop) {
+                continue;
+            }
+            if (states == null) {
+                if (underCeiling && sectionMinY <= snapshot.getScanTopY() && sectionMinY + CHUNK_SIZE > snapshot.getScanBottomY()) {
+                    // Seccion del rango sin bloques: todo aire
+                    Arrays.fill(open, true);
+                }
+                continue;
+            }
+
+            SectionPalette palette = SectionPalette.of(states, walk);
+            int sectionMaxY = sectionMinY + CHUNK_SIZE - 1;
+
+            for (int i = 0; i < COLUMNS; i++) {
+                if (resolved[i] || bottomY[i] > sectionMaxY || topY[i] < sectionMinY) {
+                    continue;
+                }
+
+                int x = i & (CHUNK_SIZE - 1);
+                int z = i >> 4;
+                int from = Math.min(topY[i], sectionMaxY);
+                int to = Math.max(bottomY[i], sectionMinY);
+                boolean done = false;
+
+                for (int y = from; y >= to; y--) {
+                    int entry = palette.entryAt(x, y - sectionMinY, z);
+                    if (palette.isAir(entry)) {
+                        open[i] = true;
+                        continue;
+                    }
+                    if (underCeiling && !open[i]) {
+                        continue;
+                    }
+                    if (palette.isSkipped(entry)) {
+                        if (fallbackColors[i] == 0) {
+                            fallbackColors[i] = palette.color(entry);
+                            fallbackY[i] = y;
+                        }
+                        continue;
+                    }
+                    if (palette.isFinal(entry)) {
+                        if (colors[i] == 0) {
+                            colors[i] = palette.color(entry);
+                            tints[i] = palette.tint(entry);
+                            heights[i] = (byte) y;
+                        } else {
+                            // Fondo bajo la capa translucida
+                            floors[i] = palette.floorColor(entry);
+                            depths[i] = (byte) Math.min(DepthCompositor.DEPTH_UNKNOWN - 1, layerY[i] - y);
+                        }
+                        done = true;
+                        break;
+                    }
+                    if (colors[i] == 0) {
+                        colors[i] = palette.color(entry);
+                        tints[i] = palette.tint(entry);
+                        heights[i] = (byte) y;
+                        layerY[i] = y;
+                        depths[i] = (byte) DepthCompositor.DEPTH_UNKNOWN;
+                    }
+                }
+
+                // Resuelta si encontramos un color definitivo o se acabo el sondeo
+                if (done || to <= bottomY[i]) {
+                    resolved[i] = true;
+                    remaining--;
+                }
+            }
+        }
+
+        int found = 0;
+        for (int i = 0; i < COLUMNS; i++) {
+            if (colors[i] == 0 && fallbackColors[i] != 0) {
+                colors[i] = fallbackColors[i];
+                heights[i] = (byte) fallbackY[i];
+            }
+            if (colors[i] != 0) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Colores resueltos para las entradas de la paleta de una seccion y el indice de paleta
+     * de cada bloque, desempaquetado una vez de los bits del contenedor.
+     */
+    private static final class SectionPalette {
+        private static final int BLOCKS = CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE;
+
+        private final boolean firstSolid;
+        // Indice de paleta por bloque, (y * 16 + z) * 16 + x como en el contenedor
+        private final int[] entries = new int[BLOCKS];
+        private final int[] colors;
+        private final byte[] tints;
+        private final int[] floorColors;
+        private final boolean[] air;
+        private final boolean[] skipped;
+        private final boolean[] finals;
+
+        private SectionPalette(int size, boolean firstSolid) {
+            this.firstSolid = firstSolid;
+            this.colors = new int[size];
+            this.tints = new byte[size];
+            this.floorColors = new int[size];
+            this.air = new boolean[size];
+            this.skipped = new boolean[size];
+            this.finals = new boolean[size];
+        }
+
+        /**
+         * Lee la paleta y los indices de la seccion tal como estan en el contenedor y resuelve
+         * cada entrada. Con la paleta global los indices son ids de estado: se renumeran a los
+         * estados que aparecen en la seccion.
+         *
+         * @param firstSolid si es true, cualquier bloque no aire termina la columna (recorrido antiguo)
+         */
+        static SectionPalette of(PalettedContainer<BlockState> container, boolean firstSolid) {
+            if (!PalettedContainerAccess.isAvailable()) {
+                return packed(container, firstSolid);
+            }
+            Object data = PalettedContainerAccess.data(container);
+            Palette<BlockState> states = PalettedContainerAccess.palette(data);
+            BitStorage storage = PalettedContainerAccess.storage(data);
+            if (storage.getSize() != BLOCKS) {
+                return packed(container, firstSolid);
+            }
+
+            if (states instanceof GlobalPalette) {
+                int[] entries = new int[BLOCKS];
+                storage.unpack(entries);
+                Int2IntOpenHashMap indices = new Int2IntOpenHashMap();
+                indices.defaultReturnValue(-1);
+                List<BlockState> present = new ArrayList<>();
+                for (int i = 0; i < BLOCKS; i++) {
+                    int index = indices.get(entries[i]);
+                    if (index < 0) {
+                        index = present.size();
+                        indices.put(entries[i], index);
+                        present.add(states.valueFor(entries[i]));
+                    }
+                    entries[i] = index;
+                }
+                SectionPalette palette = new SectionPalette(present.size(), firstSolid);
+                for (int i = 0; i < present.size(); i++) {
+                    palette.resolve(i, present.get(i));
+                }
+                System.arraycopy(entries, 0, palette.entries, 0, BLOCKS);
+                return palette;
+            }
+
+            SectionPalette palette = new SectionPalette(states.getSize(), firstSolid);
+            for (int i = 0; i < states.getSize(); i++) {
+                palette.resolve(i, states.valueFor(i));
+            }
+            storage.unpack(palette.entries);
+            return palette;
+        }
+
+        /**
+         * Camino lento: compacta la seccion a su paleta (lo mismo que se hace al guardar el
+         * chunk), con lo que se reempaquetan sus 4096 bloques.
+         */
+        private static SectionPalette packed(PalettedContainer<BlockState> container, boolean firstSolid) {
+            PalettedContainerRO.PackedData<BlockState> packed =
+                    container.pack(Block.BLOCK_STATE_REGISTRY, PalettedContainer.Strategy.SECTION_STATES);
+            List<BlockState> states = packed.paletteEntries();
+            SectionPalette palette = new SectionPalette(states.size(), firstSolid);
+            for (int i = 0; i < states.size(); i++) {
+                palette.resolve(i, states.get(i));
+            }
+            // Sin datos la seccion es de un solo estado: todos los indices quedan a 0
+            packed.storage().ifPresent(data -> palette.unpack(container, states, data.toArray()));
+            return palette;
+        }
+
+        private void unpack(PalettedContainer<BlockState> container, List<BlockState> states, long[] data) {
+            // Mismos bits que usa SECTION_STATES al compactar: 4 como minimo
+            int bits = Math.max(4, Mth.ceillog2(states.size()));
+            try {
+                new SimpleBitStorage(bits, BLOCKS, data).unpack(entries);
+            } catch (SimpleBitStorage.InitializationException e) {
+                // Otro empaquetado: se resuelve bloque a bloque
+                Reference2IntOpenHashMap<BlockState> indices = new Reference2IntOpenHashMap<>();
+                for (int i = 0; i < states.size(); i++) {
+                    indices.put(states.get(i), i);
+                }
+                for (int i = 0; i < BLOCKS; i++) {
+                    entries[i] = indices.getInt(container.get(i & 15, i >> 8, (i >> 4) & 15));
+                }
+            }
+        }
+
+        private void resolve(int index, BlockState state) {
+            if (state.isAir()) {
+                air[index] = true;
+            } else {
+                if (!firstSolid && isWaterPlant(state)) {
+                    // Algas y similares cuentan como parte del agua
+                    state = Blocks.WATER.defaultBlockState();
+                }
+                int id = Block.BLOCK_STATE_REGISTRY.getId(state);
+                colors[index] = MapColorPalette.colorById(id);
+                tints[index] = MapColorPalette.tintById(id);
+                // Sin color propio se ve a traves: ni termina la columna ni es capa
+                skipped[index] = !MapColorPalette.hasColorById(id);
+                finals[index] = firstSolid
+                        || ((colors[index] >>> 24) == 0xFF && tints[index] != BiomeTint.WATER);
+                // El fondo no tiene bioma muestreado propio: lleva el tinte por defecto
+                floorColors[index] = tints[index] != BiomeTint.NONE
+                        ? BiomeTint.multiply(colors[index], BiomeTint.defaultTint(tints[index]))
+                        : colors[index];
+            }
+        }
+
+        int entryAt(int x, int y, int z) {
+            return entries[(y << 8) | (z << 4) | x];
+        }
+
+        boolean isAir(int entry) {
+            return air[entry];
+        }
+
+        boolean isSkipped(int entry) {
+            return skipped[entry];
+        }
+
+        boolean isFinal(int entry) {
+            return finals[entry];
+        }
+
+        int color(int entry) {
+            return colors[entry];
+        }
+
+        byte tint(int entry) {
+            return tints[entry];
+        }
+
+        int floorColor(int entry) {
+            return floorColors[entry];
+        }
+
+        private static boolean isWaterPlant(BlockState state) {
+            return state.getFluidState().is(FluidTags.WATER) && !state.is(Blocks.WATER) && !state.canOcclude();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+
+import java.util.BitSet;
+
+/**
+ * Resultado de colorear un chunk: el color de cada columna (indice z * 16 + x).
+ */
+public class ChunkScanResult {
+    private final ChunkPos pos;
+    private final MapLayer layer;
+    private final int[] colors;
+    private final int[] baseColors;
+    private final byte[] tints;
+    private final byte[] heights;
+    private final int[] floors;
+    private final byte[] depths;
+    private final ResourceLocation[] biomeIds;
+    private final int found;
+    private final int[] signatures;
+    private final BitSet columns;
+
+    public ChunkScanResult(ChunkSnapshot snapshot, int[] colors, int[] baseColors, byte[] tints, byte[] heights,
+                           int[] floors, byte[] depths, int found) {
+        this.pos = snapshot.getPos();
+        this.layer = snapshot.getLayer();
+        this.colors = colors;
+        this.baseColors = baseColors;
+        this.tints = tints;
+        this.heights = heights;
+        this.floors = floors;
+        this.depths = depths;
+        this.biomeIds = snapshot.getBiomeIds();
+        this.found = found;
+        this.signatures = snapshot.getSignatures();
+        this.columns = snapshot.getColumns();
+    }
+
+    public ChunkPos getPos() {
+        return pos;
+    }
+
+    public MapLayer getLayer() {
+        return layer;
+    }
+
+    public int[] getColors() {
+        return colors;
+    }
+
+    /**
+     * Colores antes del tinte de bioma; junto con {@link #getTints} y {@link #getBiomeIds}
+     * permiten volver a tintar sin escanear otra vez.
+     */
+    public int[] getBaseColors() {
+        return baseColors;
+    }
+
+    public byte[] getTints() {
+        return tints;
+    }
+
+    public ResourceLocation[] getBiomeIds() {
+        return biomeIds;
+    }
+
+    /**
+     * Altura ({@code y & 0xFF}) del bloque que dio el color de cada columna, para el sombreado.
+     */
+    public byte[] getHeights() {
+        return heights;
+    }
+
+    /**
+     * Color del fondo bajo la capa translucida de cada columna (0 si no hay).
+     */
+    public int[] getFloors() {
+        return floors;
+    }
+
+    /**
+     * Profundidad del fondo bajo la capa translucida (ver {@link DepthCompositor}).
+     */
+    public byte[] getDepths() {
+        return depths;
+    }
+
+    /**
+     * Numero de columnas con algun bloque visible.
+     */
+    public int getFound() {
+        return found;
+    }
+
+    /**
+     * Firmas de las columnas en el momento de la copia (ver {@link ChunkSnapshot#computeSignatures}).
+     */
+    public int[] getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * Columnas recalculadas, o {@code null} si se escaneo el chunk entero.
+     */
+    public BitSet getColumns() {
+        return columns;
+    }
+
+    public boolean isPartial() {
+        return columns != null;
+    }
+
+    /**
+     * Escribe las columnas escaneadas en {@code image} de una sola pasada.
+     * Las columnas sin bloques se pintan con {@code emptyColor}.
+     */
+    public void writeTo(NativeImage image, int emptyColor) {
+        int i = 0;
+        for (int z = 0; z < ChunkSnapshot.CHUNK_SIZE; z++) {
+            for (int x = 0; x < ChunkSnapshot.CHUNK_SIZE; x++, i++) {
+                if (columns != null && !columns.get(i)) {
+                    continue;
+                }
+                int color = colors[i];
+                image.setPixelRGBA(x, z, color != 0 ? color : emptyColor);
+            }
+        }
+    }
+}
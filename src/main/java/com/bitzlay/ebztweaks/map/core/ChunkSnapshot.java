@@ -0,0 +1,245 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Holder;
+import net.minecraft.core.QuartPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.Heightmap;
+
+import java.util.BitSet;
+
+/**
+ * Copia inmutable de lo que el colorizador necesita de un chunk.
+ * Se toma en el hilo del cliente y despues se puede leer desde cualquier hilo
+ * sin tocar el mundo: solo se copian las paletas de las secciones del rango pedido.
+ */
+public final class ChunkSnapshot {
+    public static final int CHUNK_SIZE = 16;
+    public static final int COLUMNS = CHUNK_SIZE * CHUNK_SIZE;
+
+    private final ChunkPos pos;
+    private final SurfaceScanner.Mode mode;
+    private final MapLayer layer;
+    private final int minY;
+    private final int maxY;
+    private final int minSection;
+    private final int scanTopY;
+    private final int scanBottomY;
+    private final boolean underCeiling;
+    private final PalettedContainer<BlockState>[] sections;
+    private final int[] surfaceHeights = new int[COLUMNS];
+    private final int[] motionHeights = new int[COLUMNS];
+    private final int[] signatures;
+    private final BitSet columns;
+    private final Biome[] biomes = new Biome[BiomeTint.SAMPLES];
+    private final ResourceLocation[] biomeIds = new ResourceLocation[BiomeTint.SAMPLES];
+
+    @SuppressWarnings("unchecked")
+    private ChunkSnapshot(LevelChunk chunk, SurfaceScanner.Mode mode, MapLayer layer, int lowestY, int highestY,
+                          boolean underCeiling, BitSet columns) {
+        this.pos = chunk.getPos();
+        this.mode = mode;
+        this.layer = layer;
+        this.underCeiling = underCeiling;
+        this.columns = columns;
+        this.signatures = computeSignatures(chunk);
+        this.minY = chunk.getMinBuildHeight();
+        this.maxY = chunk.getMaxBuildHeight() - 1;
+        this.minSection = chunk.getMinSection();
+        this.scanTopY = Math.min(highestY, maxY);
+        this.scanBottomY = Math.max(lowestY, minY);
+
+        for (int z = 0; z < CHUNK_SIZE; z++) {
+            for (int x = 0; x < CHUNK_SIZE; x++) {
+                int i = z * CHUNK_SIZE + x;
+                surfaceHeights[i] = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, x, z);
+                motionHeights[i] = chunk.getHeight(Heightmap.Types.MOTION_BLOCKING, x, z);
+            }
+        }
+
+        sampleBiomes(chunk);
+
+        LevelChunkSection[] source = chunk.getSections();
+        this.sections = new PalettedContainer[source.length];
+        for (int s = 0; s < source.length; s++) {
+            LevelChunkSection section = source[s];
+            int sectionMinY = SectionPos.sectionToBlockCoord(chunk.getSectionYFromSectionIndex(s));
+            if (section.hasOnlyAir() || sectionMinY > highestY || sectionMinY + CHUNK_SIZE - 1 < lowestY) {
+                continue;
+            }
+            sections[s] = section.getStates().copy();
+        }
+    }
+
+    /**
+     * Un bioma por quart, tomado a la altura de la superficie en el centro del quart.
+     */
+    private void sampleBiomes(LevelChunk chunk) {
+        for (int q = 0; q < BiomeTint.SAMPLES; q++) {
+            int x = (q & (BiomeTint.QUARTS - 1)) * 4 + 2;
+            int z = (q / BiomeTint.QUARTS) * 4 + 2;
+            int y = Math.max(minY, Math.min(maxY, surfaceHeights[z * CHUNK_SIZE + x]));
+            Holder<Biome> biome = chunk.getNoiseBiome(
+                    QuartPos.fromBlock(pos.getMinBlockX() + x),
+                    QuartPos.fromBlock(y),
+                    QuartPos.fromBlock(pos.getMinBlockZ() + z));
+            biomes[q] = biome.value();
+            biomeIds[q] = biome.unwrapKey().map(ResourceKey::location).orElse(null);
+        }
+    }
+
+    /**
+     * Copia las secciones que cortan con la superficie: desde el bloque mas alto del
+     * heightmap hasta la sonda mas profunda que pueda necesitar el colorizador.
+     */
+    public static ChunkSnapshot captureSurface(LevelChunk chunk) {
+        return captureSurface(chunk, null);
+    }
+
+    /**
+     * Igual que {@link #captureSurface(LevelChunk)}, pero solo para las columnas de
+     * {@code columns} (indice z * 16 + x); {@code null} significa todas.
+     */
+    public static ChunkSnapshot captureSurface(LevelChunk chunk, BitSet columns) {
+        int highest = chunk.getMinBuildHeight() - 1;
+        int lowest = chunk.getMaxBuildHeight();
+        for (int i = 0; i < COLUMNS; i++) {
+            if (columns != null && !columns.get(i)) {
+                continue;
+            }
+            int x = i & (CHUNK_SIZE - 1);
+            int z = i >> 4;
+            int top = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, x, z);
+            int motion = chunk.getHeight(Heightmap.Types.MOTION_BLOCKING, x, z);
+            highest = Math.max(highest, top);
+            lowest = Math.min(lowest, ChunkColorizer.probeBottom(top, motion, chunk.getMinBuildHeight()));
+        }
+        return new ChunkSnapshot(chunk, SurfaceScanner.Mode.HEIGHTMAP, MapLayer.SURFACE, lowest, highest, false, columns);
+    }
+
+    /**
+     * Copia todas las secciones entre el fondo del mundo y {@code topY}, para el recorrido completo de columnas.
+     */
+    public static ChunkSnapshot captureColumns(LevelChunk chunk, int topY, BitSet columns) {
+        return new ChunkSnapshot(chunk, SurfaceScanner.Mode.COLUMN_WALK, MapLayer.SURFACE, chunk.getMinBuildHeight(), topY, false, columns);
+    }
+
+    /**
+     * Copia solo las secciones de la franja de una capa de cuevas.
+     */
+    public static ChunkSnapshot captureBand(LevelChunk chunk, MapLayer layer, BitSet columns) {
+        return new ChunkSnapshot(chunk, SurfaceScanner.Mode.COLUMN_WALK, layer, layer.getMinY(), layer.getMaxY(), true, columns);
+    }
+
+    /**
+     * Copia para dimensiones con techo: la superficie es el primer suelo bajo {@code ceilingY}.
+     */
+    public static ChunkSnapshot captureUnderCeiling(LevelChunk chunk, int ceilingY, BitSet columns) {
+        return new ChunkSnapshot(chunk, SurfaceScanner.Mode.COLUMN_WALK, MapLayer.SURFACE,
+                chunk.getMinBuildHeight(), ceilingY, true, columns);
+    }
+
+    /**
+     * Firma barata de cada columna (altura de superficie, altura solida y bloque superior).
+     * Si la firma no cambia, el color de la columna tampoco. Debe llamarse en el hilo del cliente.
+     */
+    public static int[] computeSignatures(LevelChunk chunk) {
+        int[] signatures = new int[COLUMNS];
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (int z = 0; z < CHUNK_SIZE; z++) {
+            for (int x = 0; x < CHUNK_SIZE; x++) {
+                int top = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, x, z);
+                int motion = chunk.getHeight(Heightmap.Types.MOTION_BLOCKING, x, z);
+                pos.set(x, top, z);
+                int stateId = Block.getId(chunk.getBlockState(pos));
+                signatures[z * CHUNK_SIZE + x] = (stateId * 31 + top) * 31 + motion;
+            }
+        }
+        return signatures;
+    }
+
+    public ChunkPos getPos() {
+        return pos;
+    }
+
+    public SurfaceScanner.Mode getMode() {
+        return mode;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public MapLayer getLayer() {
+        return layer;
+    }
+
+    public int getScanTopY() {
+        return scanTopY;
+    }
+
+    public int getScanBottomY() {
+        return scanBottomY;
+    }
+
+    /**
+     * Si el colorizador debe saltarse el techo antes de buscar el suelo.
+     */
+    public boolean isUnderCeiling() {
+        return underCeiling;
+    }
+
+    /**
+     * Columnas a colorear, o {@code null} si son todas.
+     */
+    public BitSet getColumns() {
+        return columns;
+    }
+
+    public int[] getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * Bioma de cada quart (indice qz * 4 + qx).
+     */
+    public Biome[] getBiomes() {
+        return biomes;
+    }
+
+    public ResourceLocation[] getBiomeIds() {
+        return biomeIds;
+    }
+
+    public int getSurfaceHeight(int column) {
+        return surfaceHeights[column];
+    }
+
+    public int getMotionHeight(int column) {
+        return motionHeights[column];
+    }
+
+    public int getSectionCount() {
+        return sections.length;
+    }
+
+    public int getSectionMinY(int index) {
+        return SectionPos.sectionToBlockCoord(minSection + index);
+    }
+
+    /**
+     * Paleta de la seccion, o {@code null} si solo tiene aire o quedo fuera del rango copiado.
+     */
+    public PalettedContainer<BlockState> getSection(int index) {
+        return sections[index];
+    }
+}
@@ -0,0 +1,70 @@
+package com.bitzlay.ebztweaks.map.core;
+
+/**
+ * Compone las columnas con una capa translucida (agua, cristal...) sobre el fondo que el
+ * colorizador encontro debajo en el mismo recorrido. El agua se vuelve mas opaca y mas
+ * oscura con la profundidad; el resto usa el alfa de su color.
+ */
+public final class DepthCompositor {
+    /** Sin capa translucida en la columna. */
+    public static final int NO_LAYER = 0;
+    /** Hay capa pero el fondo quedo por debajo del sondeo. */
+    public static final int DEPTH_UNKNOWN = 0xFF;
+    /** Bloques que se sondean por debajo de la superficie del agua. */
+    public static final int MAX_WATER_DEPTH = 24;
+
+    private static final float WATER_MIN_ALPHA = 0.45f;
+    private static final float WATER_ALPHA_PER_BLOCK = 0.05f;
+    private static final float WATER_MAX_ALPHA = 0.92f;
+    private static final float DARKEN_PER_BLOCK = 0.012f;
+
+    private DepthCompositor() {
+    }
+
+    /**
+     * Compone en el sitio. {@code colors} ya lleva el tinte de bioma de la capa superior.
+     *
+     * @param floors color del fondo de cada columna (0 si no se encontro)
+     * @param depths profundidad del fondo bajo la capa ({@code depth & 0xFF}); {@link #NO_LAYER} si no hay capa
+     */
+    public static void composite(int[] colors, byte[] tints, int[] floors, byte[] depths) {
+        for (int i = 0; i < colors.length; i++) {
+            int depth = depths[i] & 0xFF;
+            if (depth != NO_LAYER && colors[i] != 0) {
+                colors[i] = compositeColumn(colors[i], tints[i] == BiomeTint.WATER, floors[i], depth);
+            }
+        }
+    }
+
+    static int compositeColumn(int layer, boolean water, int floor, int depth) {
+        if (water) {
+            int blocks = depth == DEPTH_UNKNOWN ? MAX_WATER_DEPTH : depth;
+            float alpha = Math.min(WATER_MAX_ALPHA, WATER_MIN_ALPHA + blocks * WATER_ALPHA_PER_BLOCK);
+            int mixed = floor != 0 ? blend(floor, layer, alpha) : layer;
+            return darken(mixed, 1.0f - Math.min(blocks, 16) * DARKEN_PER_BLOCK);
+        }
+
+        if (floor == 0) {
+            return layer;
+        }
+        if ((layer >>> 24) == 0xFF) {
+            // Una capa opaca solo puede ser un bloque sin color propio (teselas antiguas): se ve el fondo
+            return floor;
+        }
+        return blend(floor, layer, (layer >>> 24) / 255f);
+    }
+
+    private static int blend(int under, int over, float alpha) {
+        int r = Math.round(((under >> 16) & 0xFF) * (1 - alpha) + ((over >> 16) & 0xFF) * alpha);
+        int g = Math.round(((under >> 8) & 0xFF) * (1 - alpha) + ((over >> 8) & 0xFF) * alpha);
+        int b = Math.round((under & 0xFF) * (1 - alpha) + (over & 0xFF) * alpha);
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    private static int darken(int color, float factor) {
+        int r = (int) (((color >> 16) & 0xFF) * factor);
+        int g = (int) (((color >> 8) & 0xFF) * factor);
+        int b = (int) ((color & 0xFF) * factor);
+        return (color & 0xFF000000) | r << 16 | g << 8 | b;
+    }
+}
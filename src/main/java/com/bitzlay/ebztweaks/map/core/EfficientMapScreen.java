@@ -1,6 +1,7 @@
 package com.bitzlay.ebztweaks.map.core;
 
-import com.bitzlay.ebztweaks.EbzTweaks;
+import com.bitzlay.ebztweaks.map.storage.LegacyMigrator;
+import com.bitzlay.ebztweaks.map.storage.LodPyramid;
 import com.bitzlay.ebztweaks.map.storage.MapChunkManager;
 import com.mojang.blaze3d.systems.RenderSystem;
 import net.minecraft.client.Minecraft;
@@ -13,17 +14,18 @@ import net.minecraft.world.level.ChunkPos;
 import org.joml.Vector2d;
 
 import java.util.*;
-import java.util.concurrent.*;
 
 public class EfficientMapScreen extends Screen {
     // Constantes del mapa
     private static final double INITIAL_ZOOM = 1.0;
-    private static final double MIN_ZOOM = 0.25;
+    // Con el LOD un pixel puede ser 64 bloques: decenas de miles de bloques en pantalla
+    private static final double MIN_ZOOM = 1.0 / (1 << LodPyramid.MAX_LEVEL);
     private static final double MAX_ZOOM = 4.0;
     private static final int CHUNK_SIZE = 16;
-    private static final int LOAD_DELAY_MS = 50;
-    private static final int MAX_CONCURRENT_LOADS = 8;
-    private static final int MAX_CACHED_CHUNKS = 512;
+    private static final int REGION_SIZE = 32;
+    private static final int GRID_COLOR = 0x30FFFFFF;
+    private static final int LABEL_COLOR = 0x80FFFFFF;
+    private static final int MARKER_COLOR = 0xFFFF0000;
 
     // Estado del mapa
     private double zoom = INITIAL_ZOOM;
@@ -34,36 +36,35 @@ public class EfficientMapScreen extends Screen {
     private boolean isDragging = false;
     private double lastMouseX, lastMouseY;
     private boolean isFirstFrame = true;
-    private long lastRenderTime = 0;
+    private MapLayer shownLayer = MapLayer.SURFACE;
 
     // Sistema de chunks
     private final MapChunkManager chunkManager;
-    private final Map<ChunkPos, CompletableFuture<MapChunkManager.ChunkInfo>> loadingChunks = new ConcurrentHashMap<>();
+    // Chunks ya pedidos al gestor; se vuelven a pedir si salen de la vista y regresan
     private final Set<ChunkPos> visibleChunks = new HashSet<>();
-    private final Set<ChunkPos> generatedChunks = new HashSet<>();
+    private final MapTileRenderer tileRenderer = new MapTileRenderer();
+    private final MapOverlayRenderer overlay = new MapOverlayRenderer();
 
     public EfficientMapScreen() {
         super(Component.empty());
-        this.chunkManager = new MapChunkManager(Minecraft.getInstance().level);
-        this.generatedChunks.addAll(chunkManager.getGeneratedChunks());
+        // El gestor vive en la sesion: ya trae todo lo ingerido mientras el mapa estaba cerrado
+        this.chunkManager = MapSession.getChunkManager(Minecraft.getInstance().level);
     }
 
     @Override
     public void render(GuiGraphics graphics, int mouseX, int mouseY, float partialTicks) {
-        long currentTime = System.currentTimeMillis();
-
         // Inicialización en el primer frame
         if (isFirstFrame) {
             playerPos = Minecraft.getInstance().player.blockPosition();
             offset.x = playerPos.getX();
             offset.y = playerPos.getZ();
             isFirstFrame = false;
-            lastRenderTime = currentTime;
             return;
         }
 
         renderBackground(graphics);
         updatePlayerPosition();
+        checkLayerChange();
 
         // Calcular área visible
         int centerX = width / 2;
@@ -80,23 +81,27 @@ public class EfficientMapScreen extends Screen {
                 (int)Math.floor(worldZ / CHUNK_SIZE)
         );
 
-        // Actualizar chunks visibles
-        if (currentTime - lastRenderTime > LOAD_DELAY_MS) {
-            processChunkLoading(startChunk, visibleChunksX, visibleChunksZ);
-            lastRenderTime = currentTime;
-        }
+        // Con LOD solo se cargan chunks alrededor del jugador; el resto sale de las teselas
+        int lodLevel = LodPyramid.getLevel(zoom);
+        processChunkLoading(startChunk, visibleChunksX, visibleChunksZ, lodLevel == 0);
 
         // Habilitar scissor test para el área del mapa
         graphics.enableScissor(2, 2, width - 2, height - 2);
 
         // Renderizar chunks
-        renderVisibleChunks(graphics, startChunk, visibleChunksX, visibleChunksZ, centerX, centerY);
+        if (lodLevel == 0) {
+            renderVisibleChunks(graphics, startChunk, visibleChunksX, visibleChunksZ, centerX, centerY);
+        } else {
+            renderLodTiles(graphics, lodLevel, centerX, centerY);
+        }
 
-        // Renderizar elementos adicionales
-        renderPlayerMarker(graphics, centerX, centerY);
-        if (showChunkGrid) {
-            renderChunkGrid(graphics, startChunk, visibleChunksX, visibleChunksZ);
+        // Renderizar elementos adicionales, todos en una sola pasada
+        overlay.begin();
+        renderPlayerMarker(centerX, centerY);
+        if (showChunkGrid && chunkSize >= 4) {
+            renderChunkGrid(startChunk, visibleChunksX, visibleChunksZ, centerX, centerY);
         }
+        overlay.draw(graphics);
 
         // Deshabilitar scissor test
         graphics.disableScissor();
@@ -105,175 +110,140 @@ public class EfficientMapScreen extends Screen {
         renderCoordinates(graphics, mouseX, mouseY, centerX, centerY);
     }
 
-    private void processChunkLoading(ChunkPos startChunk, int visibleChunksX, int visibleChunksZ) {
-        loadingChunks.entrySet().removeIf(entry -> {
-            if (entry.getValue().isDone()) {
-                try {
-                    MapChunkManager.ChunkInfo info = entry.getValue().get();
-                    if (info != null) {
-                        visibleChunks.add(entry.getKey());
-                        if (info.isGenerated() && !generatedChunks.contains(entry.getKey())) {
-                            generatedChunks.add(entry.getKey());
-                        }
-                    }
-                } catch (Exception e) {
-                    EbzTweaks.LOGGER.error("Error loading chunk: " + entry.getKey(), e);
-                }
-                return true;
-            }
-            return false;
-        });
+    /**
+     * Si el gestor cambio de capa (modo cuevas o el jugador cambio de franja), las texturas
+     * visibles son de la capa anterior: se piden de nuevo, ya desde la cache de la nueva.
+     */
+    private void checkLayerChange() {
+        MapLayer layer = chunkManager.getActiveLayer();
+        if (!layer.equals(shownLayer)) {
+            shownLayer = layer;
+            visibleChunks.clear();
+        }
+    }
 
+    /**
+     * Pide los chunks cercanos al jugador y, sin LOD, los visibles. Pedir es barato: el
+     * planificador del gestor decide el orden (distancia al jugador) y cuantos se abren por
+     * tick segun su presupuesto.
+     */
+    private void processChunkLoading(ChunkPos startChunk, int visibleChunksX, int visibleChunksZ, boolean loadVisible) {
         // Determinar radio de carga basado en zoom
         int loadRadius = zoom < 1.0 ? 4 : (zoom < 2.0 ? 6 : 8);
         ChunkPos playerChunk = new ChunkPos(playerPos);
 
-        // Primero cargar chunks cercanos al jugador
-        for (int dx = -loadRadius; dx <= loadRadius && loadingChunks.size() < MAX_CONCURRENT_LOADS; dx++) {
-            for (int dz = -loadRadius; dz <= loadRadius && loadingChunks.size() < MAX_CONCURRENT_LOADS; dz++) {
-                ChunkPos pos = new ChunkPos(playerChunk.x + dx, playerChunk.z + dz);
-                queueChunkLoad(pos);
+        for (int dx = -loadRadius; dx <= loadRadius; dx++) {
+            for (int dz = -loadRadius; dz <= loadRadius; dz++) {
+                requestChunk(new ChunkPos(playerChunk.x + dx, playerChunk.z + dz));
             }
         }
-
-        // Luego cargar el resto de chunks visibles
-        if (loadingChunks.size() < MAX_CONCURRENT_LOADS) {
-            for (int x = 0; x < visibleChunksX && loadingChunks.size() < MAX_CONCURRENT_LOADS; x++) {
-                for (int z = 0; z < visibleChunksZ && loadingChunks.size() < MAX_CONCURRENT_LOADS; z++) {
-                    ChunkPos pos = new ChunkPos(startChunk.x + x, startChunk.z + z);
-                    queueChunkLoad(pos);
+        if (loadVisible) {
+            for (int x = 0; x < visibleChunksX; x++) {
+                for (int z = 0; z < visibleChunksZ; z++) {
+                    requestChunk(new ChunkPos(startChunk.x + x, startChunk.z + z));
                 }
             }
         }
 
-        // Limpiar chunks que ya no son visibles
+        // Olvidar los chunks que ya no estan ni en pantalla ni cerca del jugador
         visibleChunks.removeIf(chunk -> {
-            int dx = Math.abs(chunk.x - playerChunk.x);
-            int dz = Math.abs(chunk.z - playerChunk.z);
-            return dx > loadRadius * 2 || dz > loadRadius * 2;
+            boolean nearPlayer = Math.abs(chunk.x - playerChunk.x) <= loadRadius
+                    && Math.abs(chunk.z - playerChunk.z) <= loadRadius;
+            boolean onScreen = loadVisible
+                    && chunk.x >= startChunk.x && chunk.x < startChunk.x + visibleChunksX
+                    && chunk.z >= startChunk.z && chunk.z < startChunk.z + visibleChunksZ;
+            return !nearPlayer && !onScreen;
         });
     }
 
-    private void queueChunkLoad(ChunkPos pos) {
-        if (!visibleChunks.contains(pos) && !loadingChunks.containsKey(pos)) {
-            loadingChunks.put(pos, chunkManager.getChunk(pos, zoom));
+    private void requestChunk(ChunkPos pos) {
+        if (visibleChunks.add(pos)) {
+            chunkManager.requestChunk(pos);
         }
     }
 
+    /**
+     * Una textura por region en pantalla: los chunks abiertos ya estan escritos en la
+     * textura de su region y lo que falta es transparente.
+     */
     private void renderVisibleChunks(GuiGraphics graphics, ChunkPos startChunk,
                                      int visibleChunksX, int visibleChunksZ,
                                      int centerX, int centerY) {
-        double chunkSize = CHUNK_SIZE * zoom;
-        double offsetX = (offset.x % CHUNK_SIZE) * zoom;
-        double offsetZ = (offset.y % CHUNK_SIZE) * zoom;
-
-        for (ChunkPos chunk : visibleChunks) {
-            // Calcular posición en pantalla
-            double screenX = centerX + (chunk.x * CHUNK_SIZE - offset.x) * zoom;
-            double screenY = centerY + (chunk.z * CHUNK_SIZE - offset.y) * zoom;
-
-            if (isChunkOnScreen(screenX, screenY, chunkSize)) {
-                renderChunk(graphics, chunk, screenX, screenY, chunkSize);
-            }
-        }
-
-        // Si zoom está muy lejos, mostrar chunks generados como puntos de color
-        if (zoom < 0.5) {
-            renderGeneratedChunksOverview(graphics, centerX, centerY);
-        }
-    }
-
-    private boolean isChunkOnScreen(double screenX, double screenY, double size) {
-        return screenX + size >= 0 && screenX <= width &&
-                screenY + size >= 0 && screenY <= height;
-    }
-
-    private void renderChunk(GuiGraphics graphics, ChunkPos chunk, double screenX, double screenY, double size) {
-        try {
-            CompletableFuture<MapChunkManager.ChunkInfo> future = loadingChunks.get(chunk);
-            if (future != null && future.isDone()) {
-                MapChunkManager.ChunkInfo info = future.get();
-                if (info != null) {
-                    graphics.blit(
-                            info.getTexture(),
-                            (int)screenX, (int)screenY,
-                            (int)size, (int)size,
-                            0, 0,
-                            CHUNK_SIZE, CHUNK_SIZE,
-                            CHUNK_SIZE, CHUNK_SIZE
-                    );
+        int minRegionX = Math.floorDiv(startChunk.x, REGION_SIZE);
+        int minRegionZ = Math.floorDiv(startChunk.z, REGION_SIZE);
+        int maxRegionX = Math.floorDiv(startChunk.x + visibleChunksX, REGION_SIZE);
+        int maxRegionZ = Math.floorDiv(startChunk.z + visibleChunksZ, REGION_SIZE);
+
+        int blocks = REGION_SIZE * CHUNK_SIZE;
+        tileRenderer.begin();
+        for (int regionX = minRegionX; regionX <= maxRegionX; regionX++) {
+            for (int regionZ = minRegionZ; regionZ <= maxRegionZ; regionZ++) {
+                ResourceLocation texture = chunkManager.getRegionTexture(regionX, regionZ);
+                if (texture != null) {
+                    tileRenderer.add(texture, (double)regionX * blocks, (double)regionZ * blocks, blocks);
                 }
             }
-        } catch (Exception e) {
-            EbzTweaks.LOGGER.error("Error rendering chunk " + chunk, e);
         }
+        tileRenderer.draw(graphics, offset.x, offset.y, zoom, centerX, centerY);
     }
 
-    private void renderGeneratedChunksOverview(GuiGraphics graphics, int centerX, int centerY) {
-        for (ChunkPos chunk : generatedChunks) {
-            double screenX = centerX + (chunk.x * CHUNK_SIZE - offset.x) * zoom;
-            double screenY = centerY + (chunk.z * CHUNK_SIZE - offset.y) * zoom;
-
-            if (isChunkOnScreen(screenX, screenY, zoom * CHUNK_SIZE)) {
-                graphics.fill(
-                        (int)screenX, (int)screenY,
-                        (int)(screenX + zoom * CHUNK_SIZE),
-                        (int)(screenY + zoom * CHUNK_SIZE),
-                        0x80FFFFFF
-                );
+    /**
+     * Teselas del nivel de LOD que cubren la pantalla.
+     */
+    private void renderLodTiles(GuiGraphics graphics, int level, int centerX, int centerY) {
+        int blocks = LodPyramid.getTileBlocks(level);
+        int minTileX = (int)Math.floor((offset.x - centerX / zoom) / blocks);
+        int minTileZ = (int)Math.floor((offset.y - centerY / zoom) / blocks);
+        int maxTileX = (int)Math.floor((offset.x + (width - centerX) / zoom) / blocks);
+        int maxTileZ = (int)Math.floor((offset.y + (height - centerY) / zoom) / blocks);
+
+        tileRenderer.begin();
+        for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+            for (int tileZ = minTileZ; tileZ <= maxTileZ; tileZ++) {
+                ResourceLocation texture = chunkManager.getLodTexture(level, tileX, tileZ);
+                if (texture != null) {
+                    tileRenderer.add(texture, (double)tileX * blocks, (double)tileZ * blocks, blocks);
+                }
             }
         }
+        tileRenderer.draw(graphics, offset.x, offset.y, zoom, centerX, centerY);
     }
 
-    private void renderPlayerMarker(GuiGraphics graphics, int centerX, int centerY) {
+    private void renderPlayerMarker(int centerX, int centerY) {
         float markerSize = 5.0f;
         float rotation = (float)Math.toRadians(playerRotation + 180);
 
-        int x = (int)(centerX + (playerPos.getX() - offset.x) * zoom);
-        int y = (int)(centerY + (playerPos.getZ() - offset.y) * zoom);
+        float x = (float)(centerX + (playerPos.getX() - offset.x) * zoom);
+        float y = (float)(centerY + (playerPos.getZ() - offset.y) * zoom);
 
-        int[] xPoints = new int[3];
-        int[] yPoints = new int[3];
-
-        xPoints[0] = x + (int)(Math.sin(rotation) * markerSize);
-        yPoints[0] = y - (int)(Math.cos(rotation) * markerSize);
-        xPoints[1] = x + (int)(Math.sin(rotation + 2.618f) * markerSize);
-        yPoints[1] = y - (int)(Math.cos(rotation + 2.618f) * markerSize);
-        xPoints[2] = x + (int)(Math.sin(rotation - 2.618f) * markerSize);
-        yPoints[2] = y - (int)(Math.cos(rotation - 2.618f) * markerSize);
-
-        graphics.fill(xPoints[0], yPoints[0], xPoints[1], yPoints[1], 0xFFFF0000);
-        graphics.fill(xPoints[1], yPoints[1], xPoints[2], yPoints[2], 0xFFFF0000);
-        graphics.fill(xPoints[2], yPoints[2], xPoints[0], yPoints[0], 0xFFFF0000);
+        overlay.triangle(
+                x + (float)Math.sin(rotation) * markerSize, y - (float)Math.cos(rotation) * markerSize,
+                x + (float)Math.sin(rotation + 2.618f) * markerSize, y - (float)Math.cos(rotation + 2.618f) * markerSize,
+                x + (float)Math.sin(rotation - 2.618f) * markerSize, y - (float)Math.cos(rotation - 2.618f) * markerSize,
+                MARKER_COLOR);
     }
 
-    private void renderChunkGrid(GuiGraphics graphics, ChunkPos startChunk,
-                                 int visibleChunksX, int visibleChunksZ) {
-        double chunkSize = CHUNK_SIZE * zoom;
-        double offsetX = (offset.x % CHUNK_SIZE) * zoom;
-        double offsetZ = (offset.y % CHUNK_SIZE) * zoom;
-
-        for (int x = 0; x < visibleChunksX; x++) {
-            for (int z = 0; z < visibleChunksZ; z++) {
-                ChunkPos pos = new ChunkPos(startChunk.x + x, startChunk.z + z);
-                double screenX = -offsetX + x * chunkSize;
-                double screenY = -offsetZ + z * chunkSize;
-
-                // Dibujar bordes del chunk
-                int x1 = (int)screenX;
-                int y1 = (int)screenY;
-                int x2 = (int)(screenX + chunkSize);
-                int y2 = (int)(screenY + chunkSize);
-
-                graphics.fill(x1, y1, x2, y1 + 1, 0x30FFFFFF);
-                graphics.fill(x1, y1, x1 + 1, y2, 0x30FFFFFF);
-                graphics.fill(x2 - 1, y1, x2, y2, 0x30FFFFFF);
-                graphics.fill(x1, y2 - 1, x2, y2, 0x30FFFFFF);
-
-                // Mostrar coordenadas si el zoom es suficiente
-                if (zoom > 1.0) {
-                    String coords = pos.x + "," + pos.z;
-                    graphics.drawString(font, coords, x1 + 2, y1 + 2, 0x80FFFFFF);
+    /**
+     * Una linea por borde de chunk visible en cada eje, no cuatro rectangulos por chunk.
+     */
+    private void renderChunkGrid(ChunkPos startChunk, int visibleChunksX, int visibleChunksZ,
+                                 int centerX, int centerY) {
+        for (int x = 0; x <= visibleChunksX; x++) {
+            float screenX = (float)Math.floor(centerX + ((startChunk.x + x) * CHUNK_SIZE - offset.x) * zoom);
+            overlay.rect(screenX, 0, screenX + 1, height, GRID_COLOR);
+        }
+        for (int z = 0; z <= visibleChunksZ; z++) {
+            float screenY = (float)Math.floor(centerY + ((startChunk.z + z) * CHUNK_SIZE - offset.y) * zoom);
+            overlay.rect(0, screenY, width, screenY + 1, GRID_COLOR);
+        }
+
+        // Mostrar coordenadas si el zoom es suficiente
+        if (zoom > 1.0) {
+            for (int x = 0; x < visibleChunksX; x++) {
+                int screenX = (int)Math.floor(centerX + ((startChunk.x + x) * CHUNK_SIZE - offset.x) * zoom);
+                for (int z = 0; z < visibleChunksZ; z++) {
+                    int screenY = (int)Math.floor(centerY + ((startChunk.z + z) * CHUNK_SIZE - offset.y) * zoom);
+                    overlay.chunkLabel(font, startChunk.x + x, startChunk.z + z, screenX + 2, screenY + 2, LABEL_COLOR);
                 }
             }
         }
@@ -281,12 +251,18 @@ public class EfficientMapScreen extends Screen {
 
     private void renderCoordinates(GuiGraphics graphics, int mouseX, int mouseY, int centerX, int centerY) {
         ChunkPos playerChunk = new ChunkPos(playerPos);
-        String coords = String.format("X: %d, Z: %d (Chunk: %d, %d) [Visible: %d, Loading: %d, Generated: %d]",
+        String coords = String.format("X: %d, Z: %d (Chunk: %d, %d) %s [LOD: %d, Visible: %d, Generated: %d, Pending: %d, Scan: %d us]",
                 playerPos.getX(), playerPos.getZ(),
-                playerChunk.x, playerChunk.z,
-                visibleChunks.size(), loadingChunks.size(), generatedChunks.size());
+                playerChunk.x, playerChunk.z, shownLayer, LodPyramid.getLevel(zoom),
+                visibleChunks.size(), chunkManager.getExploredCount(),
+                chunkManager.getPendingCount(), chunkManager.getAverageScanMicros());
         graphics.drawString(font, coords, 5, 5, 0xFFFFFFFF);
 
+        float migration = LegacyMigrator.getProgress();
+        if (migration >= 0) {
+            graphics.drawString(font, String.format("Migrando mapa: %d%%", (int)(migration * 100)), 5, 35, 0xFFFFFF55);
+        }
+
         if (isInMapView(mouseX, mouseY)) {
             double worldX = offset.x + (mouseX - centerX) / zoom;
             double worldZ = offset.y + (mouseY - centerY) / zoom;
@@ -346,12 +322,6 @@ public class EfficientMapScreen extends Screen {
             offset.x = worldX - (mouseX - width/2.0) / zoom;
             offset.y = worldZ - (mouseY - height/2.0) / zoom;
 
-            // Limpiar caché si el cambio de zoom es significativo
-            if (Math.abs(oldZoom - zoom) > 0.5) {
-                visibleChunks.clear();
-                loadingChunks.clear();
-            }
-
             return true;
         }
         return false;
@@ -363,16 +333,19 @@ public class EfficientMapScreen extends Screen {
             showChunkGrid = !showChunkGrid;
             return true;
         }
+        if (keyCode == 67) { // Tecla C
+            chunkManager.setCaveView(!chunkManager.isCaveView());
+            checkLayerChange();
+            return true;
+        }
         return super.keyPressed(keyCode, scanCode, modifiers);
     }
 
     @Override
     public void onClose() {
         super.onClose();
-        loadingChunks.values().forEach(future -> future.cancel(true));
-        loadingChunks.clear();
         visibleChunks.clear();
-        chunkManager.cleanup();
+        tileRenderer.close();
     }
 
     @Override
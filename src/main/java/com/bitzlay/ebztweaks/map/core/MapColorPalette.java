@@ -1,14 +1,40 @@
 package com.bitzlay.ebztweaks.map.core;
 
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.client.Minecraft;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.EmptyBlockGetter;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.LeavesBlock;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.material.MapColor;
+
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * Color de mapa de cada estado de bloque, en una tabla {@code int[]} indexada por el id de
+ * {@link Block#BLOCK_STATE_REGISTRY}. Cada estado toma, por orden de prioridad, el color
+ * medio de su textura en los resource packs activos ({@link TextureColorLoader}), el color
+ * registrado a mano abajo o su {@link MapColor} (asi entran tambien los bloques de otros mods).
+ */
 public class MapColorPalette {
-    private static final Map<Block, Integer> COLOR_MAP = new HashMap<>();
+    private static final Map<Block, Integer> OVERRIDES = new HashMap<>();
     private static final int DEFAULT_COLOR = 0xFF808080; // Gris por defecto
 
+    private static final Set<Block> GRASS_TINTED = Set.of(
+            Blocks.GRASS_BLOCK, Blocks.GRASS, Blocks.TALL_GRASS, Blocks.FERN, Blocks.LARGE_FERN, Blocks.SUGAR_CANE);
+    private static final Set<Block> FOLIAGE_TINTED = Set.of(
+            Blocks.OAK_LEAVES, Blocks.JUNGLE_LEAVES, Blocks.ACACIA_LEAVES, Blocks.DARK_OAK_LEAVES,
+            Blocks.MANGROVE_LEAVES, Blocks.VINE);
+
+    private static volatile Table table = Table.EMPTY;
+    private static volatile Map<ResourceLocation, Integer> textureColors = Map.of();
+
     static {
         // Agua y líquidos
         register(Blocks.WATER, 0xFF3F76E4);
@@ -105,13 +131,178 @@ public class MapColorPalette {
     }
 
     private static void register(Block block, int color) {
-        COLOR_MAP.put(block, color);
+        OVERRIDES.put(block, color);
+    }
+
+    /**
+     * Sustituye los colores sacados de las texturas (tras una recarga de recursos)
+     * y descarta la tabla para que se reconstruya en la siguiente consulta.
+     */
+    public static synchronized void setTextureColors(Map<ResourceLocation, Integer> colors) {
+        textureColors = Map.copyOf(colors);
+        table = Table.EMPTY;
+    }
+
+    /**
+     * Color del estado. Para hierba, hojas y agua es el color base sin tinte:
+     * el tinte del bioma lo aplica {@link BiomeTint}.
+     */
+    public static int getColor(BlockState state) {
+        return colorById(Block.BLOCK_STATE_REGISTRY.getId(state));
+    }
+
+    /**
+     * Si el estado tiene un color propio (no el gris por defecto).
+     */
+    public static boolean hasColor(BlockState state) {
+        return hasColorById(Block.BLOCK_STATE_REGISTRY.getId(state));
+    }
+
+    /**
+     * Tipo de tinte de bioma del estado ({@link BiomeTint#NONE} si no se tinta).
+     */
+    public static byte getTintKind(BlockState state) {
+        return tintById(Block.BLOCK_STATE_REGISTRY.getId(state));
+    }
+
+    /**
+     * Como {@link #getColor(BlockState)} para un id de {@link Block#BLOCK_STATE_REGISTRY} ya
+     * resuelto: quien consulta varias cosas del mismo estado busca el id una sola vez.
+     */
+    public static int colorById(int id) {
+        int color = lookup(id).colorOf(id);
+        return color != 0 ? color : DEFAULT_COLOR;
+    }
+
+    public static boolean hasColorById(int id) {
+        return lookup(id).colorOf(id) != 0;
+    }
+
+    public static byte tintById(int id) {
+        return lookup(id).tintOf(id);
     }
 
     public static int getColor(Block block) {
         if (block == null) {
             return DEFAULT_COLOR;
         }
-        return COLOR_MAP.getOrDefault(block, DEFAULT_COLOR);
+        return getColor(block.defaultBlockState());
+    }
+
+    public static boolean hasColor(Block block) {
+        return block != null && hasColor(block.defaultBlockState());
+    }
+
+    private static Table lookup(int id) {
+        Table current = table;
+        return id < current.colors.length ? current : rebuild();
+    }
+
+    /**
+     * Reconstruye la tabla si el registro de estados crecio desde la ultima vez
+     * (la primera consulta llega antes de que los mods terminen de registrar).
+     */
+    private static synchronized Table rebuild() {
+        int size = Block.BLOCK_STATE_REGISTRY.size();
+        if (table.colors.length >= size) {
+            return table;
+        }
+
+        int[] colors = new int[size];
+        byte[] tints = new byte[size];
+        for (BlockState state : Block.BLOCK_STATE_REGISTRY) {
+            int id = Block.BLOCK_STATE_REGISTRY.getId(state);
+            if (id >= 0 && id < size) {
+                tints[id] = resolveTint(state);
+                colors[id] = resolve(state, tints[id]);
+            }
+        }
+        table = new Table(colors, tints);
+        EbzTweaks.LOGGER.debug("Tabla de colores del mapa: " + size + " estados");
+        return table;
+    }
+
+    private static int resolve(BlockState state, byte tint) {
+        if (state.isAir()) {
+            return 0;
+        }
+        Integer texture = textureColors.get(BuiltInRegistries.BLOCK.getKey(state.getBlock()));
+        if (texture != null) {
+            // La textura ya es el color base gris; el tinte lo pone el bioma
+            return tint != BiomeTint.NONE ? texture : applyDefaultTint(state, texture);
+        }
+        Integer override = OVERRIDES.get(state.getBlock());
+        if (override != null) {
+            return tint != BiomeTint.NONE ? BiomeTint.divide(override, BiomeTint.defaultTint(tint)) : override;
+        }
+        try {
+            MapColor mapColor = state.getMapColor(EmptyBlockGetter.INSTANCE, BlockPos.ZERO);
+            if (mapColor == null || mapColor == MapColor.NONE) {
+                return 0;
+            }
+            int color = 0xFF000000 | mapColor.col;
+            return tint != BiomeTint.NONE ? BiomeTint.divide(color, BiomeTint.defaultTint(tint)) : color;
+        } catch (RuntimeException e) {
+            // Algunos bloques de mods esperan un mundo real
+            return 0;
+        }
+    }
+
+    private static byte resolveTint(BlockState state) {
+        Block block = state.getBlock();
+        if (block == Blocks.WATER || block == Blocks.BUBBLE_COLUMN) {
+            return BiomeTint.WATER;
+        }
+        if (GRASS_TINTED.contains(block)) {
+            return BiomeTint.GRASS;
+        }
+        if (FOLIAGE_TINTED.contains(block)) {
+            return BiomeTint.FOLIAGE;
+        }
+        // Hojas de otros mods que usan el tinte de follaje
+        if (block instanceof LeavesBlock
+                && !"minecraft".equals(BuiltInRegistries.BLOCK.getKey(block).getNamespace())
+                && defaultTint(state) != -1) {
+            return BiomeTint.FOLIAGE;
+        }
+        return BiomeTint.NONE;
+    }
+
+    private static int defaultTint(BlockState state) {
+        try {
+            return Minecraft.getInstance().getBlockColors().getColor(state, null, null, 0);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Las texturas de bloques tintados que no dependen del bioma (tallos, redstone...)
+     * son grises: se multiplican por el tinte que el bloque usa sin mundo.
+     */
+    private static int applyDefaultTint(BlockState state, int color) {
+        int tint = defaultTint(state);
+        return tint == -1 ? color : BiomeTint.multiply(color, tint);
+    }
+
+    private static final class Table {
+        static final Table EMPTY = new Table(new int[0], new byte[0]);
+
+        // 0 = estado sin color conocido
+        final int[] colors;
+        final byte[] tints;
+
+        Table(int[] colors, byte[] tints) {
+            this.colors = colors;
+            this.tints = tints;
+        }
+
+        int colorOf(int id) {
+            return id >= 0 && id < colors.length ? colors[id] : 0;
+        }
+
+        byte tintOf(int id) {
+            return id >= 0 && id < tints.length ? tints[id] : BiomeTint.NONE;
+        }
     }
-}
\ No newline at end of file
+}
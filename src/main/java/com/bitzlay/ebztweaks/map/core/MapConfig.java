@@ -0,0 +1,43 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+
+public class MapConfig {
+    public static final ForgeConfigSpec SPEC;
+
+    public static final ForgeConfigSpec.EnumValue<SurfaceScanner.Mode> SURFACE_MODE;
+    public static final ForgeConfigSpec.IntValue TICK_BUDGET_MICROS;
+    public static final ForgeConfigSpec.BooleanValue BIOME_TINT;
+    public static final ForgeConfigSpec.BooleanValue RELIEF_SHADING;
+    public static final ForgeConfigSpec.IntValue CAVE_BAND_HEIGHT;
+    public static final ForgeConfigSpec.IntValue DISK_BUDGET_MB;
+
+    static {
+        ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+
+        builder.push("worldmap");
+        SURFACE_MODE = builder
+                .comment("Como se resuelve el bloque visible de cada columna.",
+                        "HEIGHTMAP parte del heightmap del chunk; COLUMN_WALK recorre la columna entera (modo antiguo).")
+                .defineEnum("surfaceMode", SurfaceScanner.Mode.HEIGHTMAP);
+        TICK_BUDGET_MICROS = builder
+                .comment("Tiempo maximo (microsegundos) que el mapeo en segundo plano puede usar en cada tick del cliente.")
+                .defineInRange("tickBudgetMicros", 2000, 100, 50000);
+        BIOME_TINT = builder
+                .comment("Tintar hierba, hojas y agua con el color de su bioma.")
+                .define("biomeTint", true);
+        RELIEF_SHADING = builder
+                .comment("Sombrear el relieve segun la altura de las columnas vecinas.")
+                .define("reliefShading", true);
+        CAVE_BAND_HEIGHT = builder
+                .comment("Altura (bloques) de cada franja del modo cuevas. Cada franja se guarda aparte.")
+                .defineInRange("caveBandHeight", 16, 4, 128);
+        DISK_BUDGET_MB = builder
+                .comment("Espacio maximo (MB) para las teselas de detalle de todos los mapas guardados.",
+                        "Al pasarse se borran las regiones vistas hace mas tiempo; las de baja resolucion se conservan. 0 = sin limite.")
+                .defineInRange("diskBudgetMb", 1024, 0, 1048576);
+        builder.pop();
+
+        SPEC = builder.build();
+    }
+}
@@ -0,0 +1,103 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import com.bitzlay.ebztweaks.map.storage.MapChunkManager;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.level.ChunkEvent;
+import net.minecraftforge.event.level.LevelEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sigue los chunks que el cliente tiene cargados y avisa a los {@link ChunkChangeListener}
+ * cuando alguno cambia. Un chunk del cliente nunca se guarda, asi que su marca de
+ * "sin guardar" solo la activan los cambios de bloques (sueltos o por seccion) y la
+ * usamos como bit de suciedad: se revisa y se limpia una vez por tick.
+ * Ademas, cada chunk que llega del servidor se encola en el {@link MapSession} actual.
+ */
+@Mod.EventBusSubscriber(modid = EbzTweaks.MOD_ID, value = Dist.CLIENT)
+public class MapEvents {
+    private static final Long2ObjectMap<LevelChunk> loadedChunks = new Long2ObjectOpenHashMap<>();
+    private static final List<ChunkChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public static void addListener(ChunkChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(ChunkChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Posiciones ({@link ChunkPos#toLong}) de los chunks que tiene cargados el cliente. Solo hilo del cliente.
+     */
+    public static LongSet getLoadedChunks() {
+        return LongSets.unmodifiable(loadedChunks.keySet());
+    }
+
+    @SubscribeEvent
+    public static void onChunkLoad(ChunkEvent.Load event) {
+        if (event.getLevel().isClientSide() && event.getChunk() instanceof LevelChunk chunk) {
+            chunk.setUnsaved(false);
+            loadedChunks.put(chunk.getPos().toLong(), chunk);
+
+            // Todo chunk recibido del servidor entra al mapa, este abierto o no
+            MapSession.getChunkManager(chunk.getLevel()).queueIngest(chunk.getPos());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onChunkUnload(ChunkEvent.Unload event) {
+        if (event.getLevel().isClientSide()) {
+            ChunkPos pos = event.getChunk().getPos();
+            loadedChunks.remove(pos.toLong());
+            for (ChunkChangeListener listener : listeners) {
+                listener.onChunkUnloaded(pos);
+            }
+        }
+    }
+
+    @SubscribeEvent
+    public static void onLevelUnload(LevelEvent.Unload event) {
+        if (event.getLevel().isClientSide()) {
+            loadedChunks.clear();
+            MapSession.close();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onClientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+
+        MapChunkManager chunkManager = MapSession.current();
+        if (chunkManager != null) {
+            chunkManager.tick();
+        }
+
+        for (LevelChunk chunk : loadedChunks.values()) {
+            if (!chunk.isUnsaved()) {
+                continue;
+            }
+            chunk.setUnsaved(false);
+            for (ChunkChangeListener listener : listeners) {
+                try {
+                    listener.onChunkChanged(chunk);
+                } catch (Exception e) {
+                    EbzTweaks.LOGGER.error("Error procesando cambios del chunk " + chunk.getPos(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import java.util.Objects;
+
+/**
+ * Capa del mapa: la superficie o una franja de alturas fija para cuevas. Cada capa tiene
+ * sus propias teselas en memoria y en disco, asi que cambiar de una a otra no obliga a
+ * volver a escanear.
+ */
+public final class MapLayer {
+    public static final MapLayer SURFACE = new MapLayer(false, 0, 0);
+
+    private final boolean cave;
+    private final int minY;
+    private final int maxY;
+
+    private MapLayer(boolean cave, int minY, int maxY) {
+        this.cave = cave;
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Franja de {@code height} bloques alineada que contiene {@code y}.
+     */
+    public static MapLayer caveBand(int y, int height) {
+        int minY = Math.floorDiv(y, height) * height;
+        return new MapLayer(true, minY, minY + height - 1);
+    }
+
+    public boolean isCave() {
+        return cave;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Subdirectorio de la capa dentro del de la dimension; la superficie usa el propio directorio.
+     */
+    public String getDirectoryName() {
+        return cave ? "cave_" + minY + "_" + maxY : "";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MapLayer other)) return false;
+        return cave == other.cave && minY == other.minY && maxY == other.maxY;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cave, minY, maxY);
+    }
+
+    @Override
+    public String toString() {
+        return cave ? "Cueva " + minY + ".." + maxY : "Superficie";
+    }
+}
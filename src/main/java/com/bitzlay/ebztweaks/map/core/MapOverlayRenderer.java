@@ -0,0 +1,253 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.BufferUploader;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.client.renderer.LightTexture;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.world.level.ChunkPos;
+import org.joml.Matrix4f;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Capa encima de las teselas: rejilla, marcadores y etiquetas. Las lineas y marcadores de un
+ * frame se juntan en un solo buffer de triangulos y se dibujan con una llamada, en vez de un
+ * {@code fill} por rectangulo. Cada etiqueta se compone una vez con la fuente y se guardan sus
+ * quads de glifos; en cada frame solo se copian desplazados al buffer de texto, todas las
+ * etiquetas juntas y con un solo vaciado. Hilo de render.
+ */
+public class MapOverlayRenderer {
+    // Etiquetas guardadas ademas de las del frame; de ahi en adelante se descartan las usadas hace mas tiempo
+    private static final int MAX_CACHED_LABELS = 4096;
+
+    // Vertices del frame: x, y por vertice y un color por vertice
+    private final FloatArrayList positions = new FloatArrayList();
+    private final IntArrayList colors = new IntArrayList();
+    private final List<Label> labels = new ArrayList<>();
+    // Orden de uso: la primera es la que lleva mas tiempo sin dibujarse
+    private final Long2ObjectLinkedOpenHashMap<GlyphRun> chunkLabels = new Long2ObjectLinkedOpenHashMap<>();
+
+    private static final class Label {
+        final GlyphRun run;
+        final int x, y;
+
+        Label(GlyphRun run, int x, int y) {
+            this.run = run;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * Quads de glifos de un texto compuesto en (0, 0), agrupados por tipo de render (pagina
+     * del atlas de la fuente). Por vertice: x, y, z, u, v y color, luz.
+     */
+    private static final class GlyphRun implements MultiBufferSource {
+        final int color;
+        final Map<RenderType, GlyphRecorder> parts = new LinkedHashMap<>();
+
+        GlyphRun(int color) {
+            this.color = color;
+        }
+
+        @Override
+        public VertexConsumer getBuffer(RenderType type) {
+            return parts.computeIfAbsent(type, t -> new GlyphRecorder());
+        }
+    }
+
+    /**
+     * Guarda los vertices que la fuente emite en vez de dibujarlos.
+     */
+    private static final class GlyphRecorder implements VertexConsumer {
+        final FloatArrayList vertices = new FloatArrayList();
+        final IntArrayList colorLight = new IntArrayList();
+        private float x, y, z, u, v;
+        private int color = -1, light;
+
+        @Override
+        public VertexConsumer vertex(double x, double y, double z) {
+            this.x = (float) x;
+            this.y = (float) y;
+            this.z = (float) z;
+            return this;
+        }
+
+        @Override
+        public VertexConsumer color(int red, int green, int blue, int alpha) {
+            color = alpha << 24 | red << 16 | green << 8 | blue;
+            return this;
+        }
+
+        @Override
+        public VertexConsumer uv(float u, float v) {
+            this.u = u;
+            this.v = v;
+            return this;
+        }
+
+        @Override
+        public VertexConsumer overlayCoords(int u, int v) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer uv2(int u, int v) {
+            light = u & 0xFFFF | v << 16;
+            return this;
+        }
+
+        @Override
+        public VertexConsumer normal(float x, float y, float z) {
+            return this;
+        }
+
+        @Override
+        public void endVertex() {
+            vertices.add(x);
+            vertices.add(y);
+            vertices.add(z);
+            vertices.add(u);
+            vertices.add(v);
+            colorLight.add(color);
+            colorLight.add(light);
+        }
+
+        @Override
+        public void defaultColor(int red, int green, int blue, int alpha) {
+        }
+
+        @Override
+        public void unsetDefaultColor() {
+        }
+    }
+
+    /**
+     * Empieza la capa del frame.
+     */
+    public void begin() {
+        positions.clear();
+        colors.clear();
+        labels.clear();
+    }
+
+    /**
+     * Rectangulo relleno en coordenadas de pantalla.
+     */
+    public void rect(float x1, float y1, float x2, float y2, int color) {
+        triangle(x1, y1, x1, y2, x2, y2, color);
+        triangle(x2, y2, x2, y1, x1, y1, color);
+    }
+
+    public void triangle(float x1, float y1, float x2, float y2, float x3, float y3, int color) {
+        vertex(x1, y1, color);
+        vertex(x2, y2, color);
+        vertex(x3, y3, color);
+    }
+
+    /**
+     * Coordenadas de un chunk como etiqueta, con sombra como {@code drawString}. Los glifos se
+     * componen la primera vez y se reutilizan mientras la etiqueta siga usandose.
+     */
+    public void chunkLabel(Font font, int chunkX, int chunkZ, int x, int y, int color) {
+        long key = ChunkPos.asLong(chunkX, chunkZ);
+        GlyphRun run = chunkLabels.getAndMoveToLast(key);
+        if (run == null || run.color != color) {
+            run = new GlyphRun(color);
+            font.drawInBatch(chunkX + "," + chunkZ, 0, 0, color, true, new Matrix4f(), run,
+                    Font.DisplayMode.NORMAL, 0, LightTexture.FULL_BRIGHT);
+            chunkLabels.putAndMoveToLast(key, run);
+            // Las de este frame estan al final y nunca se descartan
+            if (chunkLabels.size() > MAX_CACHED_LABELS + labels.size()) {
+                chunkLabels.removeFirst();
+            }
+        }
+        labels.add(new Label(run, x, y));
+    }
+
+    /**
+     * Dibuja las lineas y marcadores con una llamada y despues las etiquetas.
+     */
+    public void draw(GuiGraphics graphics) {
+        if (!positions.isEmpty()) {
+            Matrix4f pose = graphics.pose().last().pose();
+            BufferBuilder builder = Tesselator.getInstance().getBuilder();
+            builder.begin(VertexFormat.Mode.TRIANGLES, DefaultVertexFormat.POSITION_COLOR);
+            for (int i = 0; i < colors.size(); i++) {
+                int color = colors.getInt(i);
+                builder.vertex(pose, positions.getFloat(i * 2), positions.getFloat(i * 2 + 1), 0)
+                        .color(color >> 16 & 0xFF, color >> 8 & 0xFF, color & 0xFF, color >>> 24)
+                        .endVertex();
+            }
+            RenderSystem.enableBlend();
+            RenderSystem.defaultBlendFunc();
+            // Los marcadores giran con el jugador: el orden de sus vertices no es fijo
+            RenderSystem.disableCull();
+            RenderSystem.setShader(GameRenderer::getPositionColorShader);
+            BufferUploader.drawWithShader(builder.end());
+            RenderSystem.enableCull();
+            RenderSystem.disableBlend();
+        }
+
+        if (!labels.isEmpty()) {
+            drawLabels(graphics);
+        }
+    }
+
+    /**
+     * Copia los glifos guardados de todas las etiquetas, un tipo de render cada vez: cambiar
+     * de tipo en el buffer inmediato vacia el anterior.
+     */
+    private void drawLabels(GuiGraphics graphics) {
+        Matrix4f pose = graphics.pose().last().pose();
+        MultiBufferSource.BufferSource buffers = graphics.bufferSource();
+        List<RenderType> types = new ArrayList<>();
+        for (Label label : labels) {
+            for (RenderType type : label.run.parts.keySet()) {
+                if (!types.contains(type)) {
+                    types.add(type);
+                }
+            }
+        }
+        for (RenderType type : types) {
+            VertexConsumer consumer = buffers.getBuffer(type);
+            for (Label label : labels) {
+                GlyphRecorder part = label.run.parts.get(type);
+                if (part == null) {
+                    continue;
+                }
+                for (int i = 0; i < part.colorLight.size() / 2; i++) {
+                    int color = part.colorLight.getInt(i * 2);
+                    consumer.vertex(pose, part.vertices.getFloat(i * 5) + label.x,
+                                    part.vertices.getFloat(i * 5 + 1) + label.y, part.vertices.getFloat(i * 5 + 2))
+                            .color(color >> 16 & 0xFF, color >> 8 & 0xFF, color & 0xFF, color >>> 24)
+                            .uv(part.vertices.getFloat(i * 5 + 3), part.vertices.getFloat(i * 5 + 4))
+                            .uv2(part.colorLight.getInt(i * 2 + 1))
+                            .endVertex();
+                }
+            }
+        }
+        graphics.flush();
+    }
+
+    private void vertex(float x, float y, int color) {
+        positions.add(x);
+        positions.add(y);
+        colors.add(color);
+    }
+}
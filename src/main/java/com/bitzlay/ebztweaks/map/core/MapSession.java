@@ -0,0 +1,43 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import com.bitzlay.ebztweaks.map.storage.MapChunkManager;
+import net.minecraft.world.level.Level;
+
+/**
+ * Mantiene un {@link MapChunkManager} por nivel del cliente mientras dura la partida,
+ * con el mapa abierto o cerrado. Solo se usa desde el hilo del cliente.
+ */
+public final class MapSession {
+    private static Level level;
+    private static MapChunkManager chunkManager;
+
+    private MapSession() {
+    }
+
+    /**
+     * Gestor del nivel indicado; si cambio de nivel (otra dimension u otro mundo) se crea uno nuevo.
+     */
+    public static MapChunkManager getChunkManager(Level world) {
+        if (chunkManager == null || level != world) {
+            close();
+            level = world;
+            chunkManager = new MapChunkManager(world);
+        }
+        return chunkManager;
+    }
+
+    /**
+     * Gestor actual, o {@code null} si todavia no hay ninguno.
+     */
+    public static MapChunkManager current() {
+        return chunkManager;
+    }
+
+    public static void close() {
+        if (chunkManager != null) {
+            chunkManager.cleanup();
+            chunkManager = null;
+        }
+        level = null;
+    }
+}
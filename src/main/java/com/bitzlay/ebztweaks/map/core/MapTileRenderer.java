@@ -0,0 +1,153 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.renderer.GameRenderer;
+import net.minecraft.client.renderer.ShaderInstance;
+import net.minecraft.resources.ResourceLocation;
+import org.joml.Matrix4f;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Dibuja las teselas del mapa agrupadas por textura: un vertex buffer por textura con todos
+ * sus quads, en coordenadas de bloque. El desplazamiento y el zoom van en la matriz, asi que
+ * mientras no cambie el conjunto de teselas los buffers se reutilizan tal cual y arrastrar o
+ * hacer zoom no reconstruye nada. Hilo de render.
+ */
+public class MapTileRenderer {
+    private final List<Tile> tiles = new ArrayList<>();
+    private List<Tile> builtTiles = List.of();
+    private final Map<ResourceLocation, VertexBuffer> buffers = new LinkedHashMap<>();
+    // Esquina de la primera tesela al construir: los vertices son relativos a ella para no perder precision
+    private double originX, originZ;
+
+    private static final class Tile {
+        final ResourceLocation texture;
+        final double x, z, size;
+
+        Tile(ResourceLocation texture, double x, double z, double size) {
+            this.texture = texture;
+            this.x = x;
+            this.z = z;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+            Tile other = (Tile) o;
+            return texture.equals(other.texture) && x == other.x && z == other.z && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(texture, x, z, size);
+        }
+    }
+
+    /**
+     * Empieza la lista de teselas del frame.
+     */
+    public void begin() {
+        tiles.clear();
+    }
+
+    /**
+     * Tesela cuadrada de {@code size} bloques con la textura entera, con la esquina en el
+     * bloque ({@code x}, {@code z}).
+     */
+    public void add(ResourceLocation texture, double x, double z, double size) {
+        tiles.add(new Tile(texture, x, z, size));
+    }
+
+    /**
+     * Dibuja las teselas del frame con una llamada por textura. El bloque
+     * ({@code offsetX}, {@code offsetZ}) queda en ({@code centerX}, {@code centerY}).
+     */
+    public void draw(GuiGraphics graphics, double offsetX, double offsetZ, double zoom, int centerX, int centerY) {
+        if (!tiles.equals(builtTiles)) {
+            rebuild();
+        }
+        ShaderInstance shader = GameRenderer.getPositionTexShader();
+        if (buffers.isEmpty() || shader == null) {
+            return;
+        }
+
+        Matrix4f modelView = new Matrix4f(RenderSystem.getModelViewMatrix())
+                .mul(graphics.pose().last().pose())
+                .translate(centerX, centerY, 0)
+                .scale((float) zoom, (float) zoom, 1)
+                .translate((float) (originX - offsetX), (float) (originZ - offsetZ), 0);
+        RenderSystem.setShader(GameRenderer::getPositionTexShader);
+        for (Map.Entry<ResourceLocation, VertexBuffer> entry : buffers.entrySet()) {
+            RenderSystem.setShaderTexture(0, entry.getKey());
+            VertexBuffer buffer = entry.getValue();
+            buffer.bind();
+            buffer.drawWithShader(modelView, RenderSystem.getProjectionMatrix(), shader);
+        }
+        VertexBuffer.unbind();
+    }
+
+    public void close() {
+        for (VertexBuffer buffer : buffers.values()) {
+            buffer.close();
+        }
+        buffers.clear();
+        builtTiles = List.of();
+    }
+
+    private void rebuild() {
+        builtTiles = new ArrayList<>(tiles);
+        Map<ResourceLocation, List<Tile>> pages = new LinkedHashMap<>();
+        for (Tile tile : tiles) {
+            pages.computeIfAbsent(tile.texture, k -> new ArrayList<>()).add(tile);
+        }
+
+        // Los buffers de texturas que ya no estan en pantalla se liberan
+        Iterator<Map.Entry<ResourceLocation, VertexBuffer>> it = buffers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ResourceLocation, VertexBuffer> entry = it.next();
+            if (!pages.containsKey(entry.getKey())) {
+                entry.getValue().close();
+                it.remove();
+            }
+        }
+        if (tiles.isEmpty()) {
+            return;
+        }
+
+        originX = tiles.get(0).x;
+        originZ = tiles.get(0).z;
+        BufferBuilder builder = Tesselator.getInstance().getBuilder();
+        for (Map.Entry<ResourceLocation, List<Tile>> page : pages.entrySet()) {
+            builder.begin(VertexFormat.Mode.QUADS, DefaultVertexFormat.POSITION_TEX);
+            for (Tile tile : page.getValue()) {
+                float x1 = (float) (tile.x - originX);
+                float z1 = (float) (tile.z - originZ);
+                float x2 = (float) (tile.x + tile.size - originX);
+                float z2 = (float) (tile.z + tile.size - originZ);
+                builder.vertex(x1, z1, 0).uv(0, 0).endVertex();
+                builder.vertex(x1, z2, 0).uv(0, 1).endVertex();
+                builder.vertex(x2, z2, 0).uv(1, 1).endVertex();
+                builder.vertex(x2, z1, 0).uv(1, 0).endVertex();
+            }
+            VertexBuffer buffer = buffers.computeIfAbsent(page.getKey(), k -> new VertexBuffer(VertexBuffer.Usage.STATIC));
+            buffer.bind();
+            buffer.upload(builder.end());
+        }
+        VertexBuffer.unbind();
+    }
+}
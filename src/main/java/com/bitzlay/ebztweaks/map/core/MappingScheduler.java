@@ -0,0 +1,130 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import it.unimi.dsi.fastutil.longs.LongComparator;
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.function.Consumer;
+
+/**
+ * Cola persistente de chunks pendientes de mapear. Se procesa desde el tick del cliente
+ * con un presupuesto de tiempo por tick, empezando por los chunks mas cercanos al
+ * jugador y, si se esta moviendo, por los que tiene delante.
+ */
+public class MappingScheduler {
+    private static final double TRAVEL_BIAS = 0.75;
+    private static final double MIN_TRAVEL_SPEED = 0.1;
+
+    private final Consumer<ChunkPos> mapper;
+    private final LongComparator order = this::compare;
+    private final LongOpenHashSet pending = new LongOpenHashSet();
+    private LongHeapPriorityQueue queue;
+
+    private int originX;
+    private int originZ;
+    private double travelX;
+    private double travelZ;
+    private boolean dirty;
+
+    /**
+     * @param mapper trabajo de hilo del cliente para cada chunk (tipicamente, copiarlo y encolar el coloreado)
+     */
+    public MappingScheduler(Consumer<ChunkPos> mapper) {
+        this.mapper = mapper;
+        this.queue = new LongHeapPriorityQueue(order);
+    }
+
+    public void enqueue(ChunkPos pos) {
+        long key = pos.toLong();
+        if (pending.add(key)) {
+            queue.enqueue(key);
+        }
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    public void clear() {
+        pending.clear();
+        queue.clear();
+    }
+
+    /**
+     * Procesa chunks hasta agotar el presupuesto del tick. Solo en el hilo del cliente.
+     */
+    public void tick() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        updateOrigin();
+        if (dirty) {
+            rebuildQueue();
+        }
+
+        long budgetNanos = MapConfig.TICK_BUDGET_MICROS.get() * 1000L;
+        long start = System.nanoTime();
+        while (!queue.isEmpty() && System.nanoTime() - start < budgetNanos) {
+            long key = queue.dequeueLong();
+            pending.remove(key);
+            mapper.accept(new ChunkPos(key));
+        }
+    }
+
+    /**
+     * Si el jugador cambio de chunk o de direccion, las prioridades de la cola ya no valen.
+     */
+    private void updateOrigin() {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) {
+            return;
+        }
+
+        ChunkPos playerChunk = player.chunkPosition();
+        Vec3 motion = player.getDeltaMovement();
+        double speed = Math.sqrt(motion.x * motion.x + motion.z * motion.z);
+        double dirX = speed > MIN_TRAVEL_SPEED ? motion.x / speed : 0;
+        double dirZ = speed > MIN_TRAVEL_SPEED ? motion.z / speed : 0;
+
+        boolean turned = (dirX * travelX + dirZ * travelZ) < 0.9 && (dirX != travelX || dirZ != travelZ);
+        if (playerChunk.x != originX || playerChunk.z != originZ || turned) {
+            originX = playerChunk.x;
+            originZ = playerChunk.z;
+            travelX = dirX;
+            travelZ = dirZ;
+            dirty = true;
+        }
+    }
+
+    private void rebuildQueue() {
+        LongHeapPriorityQueue rebuilt = new LongHeapPriorityQueue(pending.size(), order);
+        for (long key : pending) {
+            rebuilt.enqueue(key);
+        }
+        queue = rebuilt;
+        dirty = false;
+    }
+
+    private int compare(long a, long b) {
+        return Double.compare(score(a), score(b));
+    }
+
+    /**
+     * Distancia al cuadrado (en chunks), reducida para los chunks en la direccion de viaje.
+     */
+    private double score(long key) {
+        int dx = ChunkPos.getX(key) - originX;
+        int dz = ChunkPos.getZ(key) - originZ;
+        double distance2 = dx * dx + dz * dz;
+        if (distance2 == 0 || (travelX == 0 && travelZ == 0)) {
+            return distance2;
+        }
+        double cos = (dx * travelX + dz * travelZ) / Math.sqrt(distance2);
+        return distance2 * (1.0 - TRAVEL_BIAS * cos);
+    }
+}
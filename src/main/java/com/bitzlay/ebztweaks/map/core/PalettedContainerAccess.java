@@ -0,0 +1,99 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.util.BitStorage;
+import net.minecraft.world.level.chunk.Palette;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+
+/**
+ * Lectura directa de la paleta y los bits de un {@link PalettedContainer}, sin compactarlo
+ * con {@code pack}. Los campos se buscan por tipo y no por nombre (el registro interno de
+ * datos y sus componentes {@link BitStorage} y {@link Palette}), asi que no dependen de los
+ * nombres ofuscados. Si no son accesibles {@link #isAvailable()} devuelve {@code false} y hay
+ * que usar el camino lento.
+ */
+final class PalettedContainerAccess {
+    private static final MethodHandle DATA;
+    private static final MethodHandle STORAGE;
+    private static final MethodHandle PALETTE;
+
+    static {
+        MethodHandle data = null;
+        MethodHandle storage = null;
+        MethodHandle palette = null;
+        try {
+            for (Field field : PalettedContainer.class.getDeclaredFields()) {
+                if (!Record.class.isAssignableFrom(field.getType())) {
+                    continue;
+                }
+                for (Field component : field.getType().getDeclaredFields()) {
+                    if (component.getType() == BitStorage.class) {
+                        component.setAccessible(true);
+                        storage = MethodHandles.lookup().unreflectGetter(component);
+                    } else if (component.getType() == Palette.class) {
+                        component.setAccessible(true);
+                        palette = MethodHandles.lookup().unreflectGetter(component);
+                    }
+                }
+                field.setAccessible(true);
+                data = MethodHandles.lookup().unreflectGetter(field);
+                break;
+            }
+            if (data == null || storage == null || palette == null) {
+                throw new IllegalStateException("Estructura de PalettedContainer desconocida");
+            }
+        } catch (Exception e) {
+            EbzTweaks.LOGGER.warn("Sin acceso a los datos de las secciones, se compactaran para leerlas", e);
+            data = storage = palette = null;
+        }
+        DATA = data;
+        STORAGE = storage;
+        PALETTE = palette;
+    }
+
+    private PalettedContainerAccess() {
+    }
+
+    static boolean isAvailable() {
+        return DATA != null;
+    }
+
+    /**
+     * Datos actuales del contenedor; se leen una vez y de ahi se sacan paleta y bits, porque
+     * el contenedor los cambia juntos al crecer la paleta.
+     */
+    static Object data(PalettedContainer<?> container) {
+        try {
+            return DATA.invoke(container);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static BitStorage storage(Object data) {
+        try {
+            return (BitStorage) STORAGE.invoke(data);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Palette<T> palette(Object data) {
+        try {
+            return (Palette<T>) PALETTE.invoke(data);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
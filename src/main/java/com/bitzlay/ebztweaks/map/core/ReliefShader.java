@@ -0,0 +1,57 @@
+package com.bitzlay.ebztweaks.map.core;
+
+/**
+ * Sombreado de relieve a partir de la altura guardada de cada columna: las columnas mas
+ * altas que sus vecinas del oeste y del norte se aclaran y las mas bajas se oscurecen,
+ * como si la luz viniera del noroeste.
+ * <p>
+ * Las alturas son bytes ({@code y & 0xFF}); solo importa la diferencia con la vecina,
+ * que se lee con signo y es exacta mientras no supere 127 bloques.
+ */
+public final class ReliefShader {
+    private static final int CHUNK_SIZE = ChunkSnapshot.CHUNK_SIZE;
+    private static final int MAX_STEP = 8;
+    private static final float STEP_FACTOR = 0.045f;
+
+    private ReliefShader() {
+    }
+
+    /**
+     * Sombrea el rectangulo [fromX, toX] x [fromZ, toZ] del chunk y lo escribe en {@code out}.
+     *
+     * @param west  alturas del chunk del oeste, o {@code null} si no se conoce
+     * @param north alturas del chunk del norte, o {@code null} si no se conoce
+     */
+    public static void shade(int[] colors, byte[] heights, byte[] west, byte[] north, int[] out,
+                             int fromX, int toX, int fromZ, int toZ) {
+        boolean enabled = MapConfig.RELIEF_SHADING.get();
+        for (int z = fromZ; z <= toZ; z++) {
+            for (int x = fromX; x <= toX; x++) {
+                int i = z * CHUNK_SIZE + x;
+                int color = colors[i];
+                // Solo columnas opacas: las vacias y los cristales no tienen altura util
+                if (!enabled || (color >>> 24) != 0xFF) {
+                    out[i] = color;
+                    continue;
+                }
+
+                int height = heights[i];
+                int westHeight = x > 0 ? heights[i - 1] : (west != null ? west[i + CHUNK_SIZE - 1] : height);
+                int northHeight = z > 0 ? heights[i - CHUNK_SIZE] : (north != null ? north[i + (CHUNK_SIZE - 1) * CHUNK_SIZE] : height);
+                int step = (byte) (height - westHeight) + (byte) (height - northHeight);
+                out[i] = shadeColor(color, step);
+            }
+        }
+    }
+
+    static int shadeColor(int color, int step) {
+        if (step == 0) {
+            return color;
+        }
+        float factor = 1.0f + Math.max(-MAX_STEP, Math.min(MAX_STEP, step)) * STEP_FACTOR;
+        int r = Math.min(255, (int) (((color >> 16) & 0xFF) * factor));
+        int g = Math.min(255, (int) (((color >> 8) & 0xFF) * factor));
+        int b = Math.min(255, (int) ((color & 0xFF) * factor));
+        return (color & 0xFF000000) | r << 16 | g << 8 | b;
+    }
+}
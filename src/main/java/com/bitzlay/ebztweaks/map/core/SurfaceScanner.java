@@ -0,0 +1,121 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Escaneo de chunks para el mapa en dos etapas:
+ * <ol>
+ *     <li>{@link #snapshot} copia las paletas y el heightmap del chunk en el hilo del cliente.</li>
+ *     <li>{@link #scanAsync} colorea esa copia en un pool work-stealing con un hilo por nucleo.</li>
+ * </ol>
+ * Ninguna etapa lee el mundo fuera del hilo del cliente.
+ */
+public class SurfaceScanner {
+    public enum Mode {
+        HEIGHTMAP,
+        COLUMN_WALK
+    }
+
+    public static final int CHUNK_SIZE = 16;
+    private static final int STATS_LOG_INTERVAL = 256;
+
+    private static final ForkJoinPool COLORIZE_POOL = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("EbzMap-Colorizer-" + thread.getPoolIndex());
+                thread.setContextClassLoader(SurfaceScanner.class.getClassLoader());
+                thread.setDaemon(true);
+                return thread;
+            },
+            null,
+            true);
+
+    private final SurfaceStrategy strategy;
+    private final AtomicLong scannedChunks = new AtomicLong();
+    private final AtomicLong totalScanNanos = new AtomicLong();
+
+    public SurfaceScanner(Level world) {
+        this.strategy = SurfaceStrategies.forLevel(world);
+    }
+
+    /**
+     * Etapa 1: copia barata del chunk. Debe llamarse en el hilo del cliente.
+     */
+    public ChunkSnapshot snapshot(LevelChunk chunk) {
+        return snapshot(chunk, null);
+    }
+
+    /**
+     * Copia solo lo necesario para recalcular {@code columns} (indice z * 16 + x).
+     */
+    public ChunkSnapshot snapshot(LevelChunk chunk, BitSet columns) {
+        return snapshot(chunk, columns, MapLayer.SURFACE);
+    }
+
+    /**
+     * Copia para una capa concreta; las capas de cuevas solo copian su franja.
+     */
+    public ChunkSnapshot snapshot(LevelChunk chunk, BitSet columns, MapLayer layer) {
+        if (layer.isCave()) {
+            return ChunkSnapshot.captureBand(chunk, layer, columns);
+        }
+        return strategy.capture(chunk, columns);
+    }
+
+    /**
+     * Etapa 2: colorea la copia en el hilo actual.
+     */
+    public ChunkScanResult scan(ChunkSnapshot snapshot) {
+        int[] baseColors = new int[ChunkSnapshot.COLUMNS];
+        byte[] tints = new byte[ChunkSnapshot.COLUMNS];
+        byte[] heights = new byte[ChunkSnapshot.COLUMNS];
+        int[] floors = new int[ChunkSnapshot.COLUMNS];
+        byte[] depths = new byte[ChunkSnapshot.COLUMNS];
+        long start = System.nanoTime();
+        int found = ChunkColorizer.colorize(snapshot, baseColors, tints, heights, floors, depths);
+        int[] colors = baseColors.clone();
+        BiomeTint.apply(snapshot.getPos(), colors, tints, snapshot.getBiomes());
+        DepthCompositor.composite(colors, tints, floors, depths);
+        recordScan(snapshot.getPos(), snapshot.getMode(), System.nanoTime() - start);
+        return new ChunkScanResult(snapshot, colors, baseColors, tints, heights, floors, depths, found);
+    }
+
+    /**
+     * Etapa 2 en el pool de coloreado.
+     */
+    public CompletableFuture<ChunkScanResult> scanAsync(ChunkSnapshot snapshot) {
+        return CompletableFuture.supplyAsync(() -> scan(snapshot), COLORIZE_POOL);
+    }
+
+    private void recordScan(ChunkPos pos, Mode mode, long nanos) {
+        long count = scannedChunks.incrementAndGet();
+        long total = totalScanNanos.addAndGet(nanos);
+
+        EbzTweaks.LOGGER.debug("Chunk {},{} escaneado en {} us ({})", pos.x, pos.z, nanos / 1000, mode);
+        if (count % STATS_LOG_INTERVAL == 0) {
+            EbzTweaks.LOGGER.info("Escaneo de mapa: " + count + " chunks, media " + (total / count / 1000) + " us/chunk (" + mode + ")");
+        }
+    }
+
+    /**
+     * Estrategia de superficie de la dimension del escaner.
+     */
+    public SurfaceStrategy getStrategy() {
+        return strategy;
+    }
+
+    public long getAverageScanMicros() {
+        long count = scannedChunks.get();
+        return count == 0 ? 0 : totalScanNanos.get() / count / 1000;
+    }
+}
@@ -0,0 +1,103 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estrategias de superficie incluidas y registro por dimension.
+ */
+public final class SurfaceStrategies {
+    private static final int WALK_ABOVE_PLAYER = 64;
+
+    /**
+     * Superficie por heightmap (o recorrido de columnas, segun {@link MapConfig#SURFACE_MODE}).
+     */
+    public static final SurfaceStrategy HEIGHTMAP = new SurfaceStrategy() {
+        @Override
+        public ChunkSnapshot capture(LevelChunk chunk, BitSet columns) {
+            if (MapConfig.SURFACE_MODE.get() == SurfaceScanner.Mode.COLUMN_WALK) {
+                return ChunkSnapshot.captureColumns(chunk, getWalkTop(chunk), columns);
+            }
+            return ChunkSnapshot.captureSurface(chunk, columns);
+        }
+    };
+
+    /**
+     * Para dimensiones con techo (el Nether): el heightmap da el techo de bedrock, asi que
+     * se baja desde la altura logica de la dimension hasta el primer hueco y se toma su suelo.
+     */
+    public static final SurfaceStrategy CEILING = new SurfaceStrategy() {
+        @Override
+        public ChunkSnapshot capture(LevelChunk chunk, BitSet columns) {
+            int ceilingY = chunk.getMinBuildHeight() + chunk.getLevel().dimensionType().logicalHeight() - 1;
+            return ChunkSnapshot.captureUnderCeiling(chunk, Math.min(ceilingY, chunk.getMaxBuildHeight() - 1), columns);
+        }
+    };
+
+    /**
+     * Para dimensiones con vacio (el End): los chunks sin bloques no se copian ni se guardan
+     * y las columnas vacias quedan transparentes en vez de gastar un color.
+     */
+    public static final SurfaceStrategy VOID = new SurfaceStrategy() {
+        @Override
+        public ChunkSnapshot capture(LevelChunk chunk, BitSet columns) {
+            return ChunkSnapshot.captureSurface(chunk, columns);
+        }
+
+        @Override
+        public boolean isEmpty(LevelChunk chunk) {
+            for (LevelChunkSection section : chunk.getSections()) {
+                if (!section.hasOnlyAir()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int getEmptyColor() {
+            return 0;
+        }
+    };
+
+    private static final Map<ResourceKey<Level>, SurfaceStrategy> STRATEGIES = new ConcurrentHashMap<>();
+
+    static {
+        register(Level.NETHER, CEILING);
+        register(Level.END, VOID);
+    }
+
+    private SurfaceStrategies() {
+    }
+
+    public static void register(ResourceKey<Level> dimension, SurfaceStrategy strategy) {
+        STRATEGIES.put(dimension, strategy);
+    }
+
+    /**
+     * Estrategia registrada para la dimension; si no hay, se deduce del tipo de dimension.
+     */
+    public static SurfaceStrategy forLevel(Level level) {
+        SurfaceStrategy strategy = STRATEGIES.get(level.dimension());
+        if (strategy != null) {
+            return strategy;
+        }
+        return level.dimensionType().hasCeiling() ? CEILING : HEIGHTMAP;
+    }
+
+    private static int getWalkTop(LevelChunk chunk) {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) {
+            return chunk.getMaxBuildHeight() - 1;
+        }
+        return Math.min(chunk.getMaxBuildHeight(), player.blockPosition().getY() + WALK_ABOVE_PLAYER);
+    }
+}
@@ -0,0 +1,37 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import net.minecraft.world.level.chunk.LevelChunk;
+
+import java.util.BitSet;
+
+/**
+ * Como se encuentra la superficie de un chunk en una dimension. Se elige por
+ * dimension con {@link SurfaceStrategies#forLevel}; otros mods pueden registrar la suya
+ * con {@link SurfaceStrategies#register}.
+ */
+public interface SurfaceStrategy {
+    /**
+     * Color de las columnas sin bloques visibles en las teselas guardadas.
+     */
+    int DEFAULT_EMPTY_COLOR = 0x44808080;
+
+    /**
+     * Copia lo necesario para colorear la superficie de {@code columns} (indice z * 16 + x,
+     * {@code null} para todas). Se llama en el hilo del cliente.
+     */
+    ChunkSnapshot capture(LevelChunk chunk, BitSet columns);
+
+    /**
+     * Si el chunk no tiene nada que mapear y se puede saltar sin copiarlo.
+     */
+    default boolean isEmpty(LevelChunk chunk) {
+        return false;
+    }
+
+    /**
+     * Color con el que se guardan las columnas vacias; 0 las deja transparentes.
+     */
+    default int getEmptyColor() {
+        return DEFAULT_EMPTY_COLOR;
+    }
+}
@@ -0,0 +1,231 @@
+package com.bitzlay.ebztweaks.map.core;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.client.Minecraft;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.PackResources;
+import net.minecraft.server.packs.PackType;
+import net.minecraft.server.packs.resources.IoSupplier;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.minecraft.server.packs.resources.SimplePreparableReloadListener;
+import net.minecraft.util.profiling.ProfilerFiller;
+import net.minecraft.world.level.block.Block;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Calcula el color medio de la cara superior de cada bloque a partir de las texturas
+ * de los resource packs activos. El muestreo se hace en la fase de preparacion de la
+ * recarga (fuera del hilo del cliente) y se guarda en disco con una clave derivada de
+ * la pila de packs y de su contenido, de modo que los siguientes arranques solo leen la cache.
+ */
+public class TextureColorLoader extends SimplePreparableReloadListener<Map<ResourceLocation, Integer>> {
+    private static final int CACHE_VERSION = 1;
+
+    @Override
+    protected Map<ResourceLocation, Integer> prepare(ResourceManager resourceManager, ProfilerFiller profiler) {
+        Path cacheFile = getCacheDir().resolve(computePackHash(resourceManager) + ".bin");
+
+        Map<ResourceLocation, Integer> cached = readCache(cacheFile);
+        if (cached != null) {
+            EbzTweaks.LOGGER.info("Colores de texturas cargados de la cache: " + cached.size() + " bloques");
+            return cached;
+        }
+
+        long start = System.nanoTime();
+        Map<ResourceLocation, Integer> colors = new HashMap<>();
+        for (Block block : BuiltInRegistries.BLOCK) {
+            ResourceLocation id = BuiltInRegistries.BLOCK.getKey(block);
+            int color = sampleTopTexture(resourceManager, id);
+            if (color != 0) {
+                colors.put(id, color);
+            }
+        }
+        EbzTweaks.LOGGER.info("Colores de texturas muestreados: " + colors.size() + " bloques en " +
+                ((System.nanoTime() - start) / 1_000_000) + " ms");
+
+        writeCache(cacheFile, colors);
+        return colors;
+    }
+
+    @Override
+    protected void apply(Map<ResourceLocation, Integer> colors, ResourceManager resourceManager, ProfilerFiller profiler) {
+        MapColorPalette.setTextureColors(colors);
+    }
+
+    /**
+     * Textura de la cara superior por convencion de nombres: {@code <bloque>_top} y si no {@code <bloque>}.
+     */
+    private static int sampleTopTexture(ResourceManager resourceManager, ResourceLocation block) {
+        for (String suffix : new String[] {"_top", ""}) {
+            ResourceLocation texture = new ResourceLocation(block.getNamespace(),
+                    "textures/block/" + block.getPath() + suffix + ".png");
+            Optional<Resource> resource = resourceManager.getResource(texture);
+            if (resource.isPresent()) {
+                try (InputStream is = resource.get().open(); NativeImage image = NativeImage.read(is)) {
+                    return averageColor(image);
+                } catch (IOException e) {
+                    EbzTweaks.LOGGER.warn("No se pudo leer la textura " + texture + ": " + e.getMessage());
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Media de los pixeles no transparentes, en el formato 0xAARRGGBB de {@link MapColorPalette}.
+     * En texturas animadas solo se usa el primer fotograma.
+     */
+    private static int averageColor(NativeImage image) {
+        int width = image.getWidth();
+        int height = Math.min(image.getHeight(), width);
+        long r = 0, g = 0, b = 0, a = 0;
+        int count = 0;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // NativeImage devuelve 0xAABBGGRR
+                int pixel = image.getPixelRGBA(x, y);
+                int alpha = pixel >>> 24;
+                if (alpha == 0) {
+                    continue;
+                }
+                r += pixel & 0xFF;
+                g += (pixel >> 8) & 0xFF;
+                b += (pixel >> 16) & 0xFF;
+                a += alpha;
+                count++;
+            }
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+        return (int) (a / count) << 24 | (int) (r / count) << 16 | (int) (g / count) << 8 | (int) (b / count);
+    }
+
+    /**
+     * Clave de la cache: la pila de packs y, de cada uno, una huella de su contenido, para que
+     * editar o cambiar un pack con el mismo nombre invalide los colores guardados.
+     */
+    private static String computePackHash(ResourceManager resourceManager) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update((CACHE_VERSION + "\n" + BuiltInRegistries.BLOCK.size() + "\n").getBytes(StandardCharsets.UTF_8));
+            resourceManager.listPacks().forEach(pack -> fingerprint(pack, digest));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            String packs = resourceManager.listPacks()
+                    .map(PackResources::packId)
+                    .collect(Collectors.joining("\n"));
+            return Integer.toHexString((CACHE_VERSION + "\n" + BuiltInRegistries.BLOCK.size() + "\n" + packs).hashCode());
+        }
+    }
+
+    /**
+     * Los packs de la carpeta resourcepacks se identifican por el tamano y la fecha de sus
+     * ficheros; el resto (vanilla, mods), por su pack.mcmeta y la lista de texturas de bloque.
+     */
+    private static void fingerprint(PackResources pack, MessageDigest digest) {
+        digest.update((pack.packId() + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            Path packFile = getPackFile(pack.packId());
+            if (packFile != null && Files.exists(packFile)) {
+                try (Stream<Path> files = Files.walk(packFile)) {
+                    for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                        if (Files.isRegularFile(file)) {
+                            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                            digest.update((packFile.relativize(file) + ":" + attributes.size() + ":"
+                                    + attributes.lastModifiedTime().toMillis() + "\n").getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                }
+                return;
+            }
+
+            IoSupplier<InputStream> meta = pack.getRootResource("pack.mcmeta");
+            if (meta != null) {
+                try (InputStream is = meta.get()) {
+                    digest.update(is.readAllBytes());
+                }
+            }
+            List<String> textures = new ArrayList<>();
+            for (String namespace : pack.getNamespaces(PackType.CLIENT_RESOURCES)) {
+                pack.listResources(PackType.CLIENT_RESOURCES, namespace, "textures/block",
+                        (id, resource) -> textures.add(id.toString()));
+            }
+            Collections.sort(textures);
+            digest.update(String.join("\n", textures).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.warn("No se pudo calcular la huella del pack " + pack.packId(), e);
+        }
+    }
+
+    /**
+     * Fichero o carpeta de un pack de la carpeta resourcepacks ({@code file/<nombre>}), o
+     * {@code null} si el pack no viene de ahi.
+     */
+    private static Path getPackFile(String packId) {
+        if (!packId.startsWith("file/")) {
+            return null;
+        }
+        return Minecraft.getInstance().getResourcePackDirectory().resolve(packId.substring("file/".length()));
+    }
+
+    private static Path getCacheDir() {
+        return Minecraft.getInstance().gameDirectory.toPath()
+                .resolve("ebztweaks")
+                .resolve("colorcache");
+    }
+
+    private static Map<ResourceLocation, Integer> readCache(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int count = in.readInt();
+            Map<ResourceLocation, Integer> colors = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                ResourceLocation id = new ResourceLocation(in.readUTF());
+                colors.put(id, in.readInt());
+            }
+            return colors;
+        } catch (IOException | RuntimeException e) {
+            EbzTweaks.LOGGER.warn("Cache de colores invalida, se vuelve a muestrear: " + file, e);
+            return null;
+        }
+    }
+
+    private static void writeCache(Path file, Map<ResourceLocation, Integer> colors) {
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(colors.size());
+                for (Map.Entry<ResourceLocation, Integer> entry : colors.entrySet()) {
+                    out.writeUTF(entry.getKey().toString());
+                    out.writeInt(entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error guardando la cache de colores " + file, e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import com.bitzlay.ebztweaks.map.core.MapConfig;
+import net.minecraft.client.Minecraft;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Limite de disco para los mapas guardados ({@link MapConfig#DISK_BUDGET_MB}), compartido por
+ * todos los servidores y dimensiones. Lleva la ultima vez que cada region se dibujo en el mapa
+ * (no cuando se lee o escribe: el ingreso en segundo plano no cuenta como verla) y, si el total
+ * se pasa, borra las regiones de detalle vistas hace mas tiempo. Solo toca ficheros
+ * de region ({@code r.x.z.ebz} y {@code r.x.z.map}); las teselas de baja resolucion viven en
+ * otros ficheros y se conservan.
+ *
+ * <p>Todo el trabajo va en un hilo propio y por pasos: cada paso recorre los directorios como
+ * mucho una vez y borra como mucho {@link #EVICTIONS_PER_STEP} regiones.
+ */
+public final class DiskQuota {
+    private static final long STEP_INTERVAL_SECONDS = 30;
+    private static final long RESCAN_INTERVAL_MS = 10 * 60 * 1000;
+    private static final int EVICTIONS_PER_STEP = 16;
+    // No se borra nada usado hace menos de esto, aunque se pase del limite
+    private static final long MIN_IDLE_MS = 15 * 60 * 1000;
+    private static final String ACCESS_FILE = "access.dat";
+
+    private static final Map<Path, Long> LAST_ACCESS = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService executor;
+
+    // Estado del hilo de la cuota
+    private static List<RegionEntry> entries = new ArrayList<>();
+    private static long totalBytes;
+    private static long lastScan;
+
+    private static class RegionEntry {
+        final Path file;
+        final long size;
+        final long lastAccess;
+
+        RegionEntry(Path file, long size, long lastAccess) {
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private DiskQuota() {
+    }
+
+    /**
+     * Arranca el hilo de la cuota si no lo estaba. Se puede llamar varias veces.
+     */
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "EbzMap-DiskQuota");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.execute(DiskQuota::loadAccessTimes);
+        executor.scheduleWithFixedDelay(DiskQuota::step, STEP_INTERVAL_SECONDS, STEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Marca una region como vista ahora.
+     */
+    static void touch(Path regionFile) {
+        LAST_ACCESS.put(regionFile.toAbsolutePath().normalize(), System.currentTimeMillis());
+    }
+
+    private static void step() {
+        try {
+            long budget = MapConfig.DISK_BUDGET_MB.get() * 1024L * 1024L;
+            long now = System.currentTimeMillis();
+            if (now - lastScan >= RESCAN_INTERVAL_MS) {
+                scan();
+                saveAccessTimes();
+                lastScan = now;
+            }
+            if (budget <= 0 || totalBytes <= budget) {
+                return;
+            }
+
+            int evicted = 0;
+            while (totalBytes > budget && evicted < EVICTIONS_PER_STEP && !entries.isEmpty()) {
+                RegionEntry oldest = entries.get(0);
+                long lastAccess = LAST_ACCESS.getOrDefault(oldest.file, oldest.lastAccess);
+                if (now - lastAccess < MIN_IDLE_MS) {
+                    break;
+                }
+                entries.remove(0);
+                if (lastAccess > oldest.lastAccess) {
+                    // Se uso despues del ultimo recorrido: vuelve a su sitio en el orden
+                    insertSorted(new RegionEntry(oldest.file, oldest.size, lastAccess));
+                    continue;
+                }
+                if (evict(oldest.file)) {
+                    totalBytes -= oldest.size;
+                    evicted++;
+                }
+            }
+            if (evicted > 0) {
+                EbzTweaks.LOGGER.info("Cuota del mapa: " + evicted + " regiones borradas, quedan "
+                        + totalBytes / (1024 * 1024) + " MB");
+            }
+        } catch (Exception e) {
+            EbzTweaks.LOGGER.error("Error aplicando la cuota del mapa", e);
+        }
+    }
+
+    private static void scan() throws IOException {
+        List<RegionEntry> found = new ArrayList<>();
+        long total = 0;
+        for (Path root : getRoots()) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(root)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    if (!name.startsWith("r.") || !(name.endsWith(".ebz") || name.endsWith(".map"))) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    Path key = file.toAbsolutePath().normalize();
+                    long lastAccess = LAST_ACCESS.getOrDefault(key, attributes.lastModifiedTime().toMillis());
+                    found.add(new RegionEntry(key, attributes.size(), lastAccess));
+                    total += attributes.size();
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(e -> e.lastAccess));
+        entries = found;
+        totalBytes = total;
+    }
+
+    private static void insertSorted(RegionEntry entry) {
+        int index = 0;
+        while (index < entries.size() && entries.get(index).lastAccess <= entry.lastAccess) {
+            index++;
+        }
+        entries.add(index, entry);
+    }
+
+    private static boolean evict(Path file) {
+        String[] parts = file.getFileName().toString().split("\\.");
+        try {
+            if (parts.length == 4 && parts[3].equals("ebz")) {
+                return RegionFileCache.delete(file, Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            }
+            return Files.deleteIfExists(file);
+        } catch (IOException | NumberFormatException e) {
+            EbzTweaks.LOGGER.warn("No se pudo borrar la region " + file, e);
+            return false;
+        } finally {
+            LAST_ACCESS.remove(file);
+        }
+    }
+
+    private static List<Path> getRoots() {
+        Path gameDir = Minecraft.getInstance().gameDirectory.toPath();
+        return List.of(gameDir.resolve("ebztweaks").resolve("worldmap"), gameDir.resolve("EbzWorldMap"));
+    }
+
+    private static Path getAccessFile() {
+        return getRoots().get(0).resolve(ACCESS_FILE);
+    }
+
+    /**
+     * Las horas de acceso de sesiones anteriores; sin ellas se usa la de modificacion.
+     */
+    private static void loadAccessTimes() {
+        Path file = getAccessFile();
+        if (!Files.exists(file)) {
+            return;
+        }
+        Path gameDir = Minecraft.getInstance().gameDirectory.toPath().toAbsolutePath().normalize();
+        try (DataInputStream is = new DataInputStream(Files.newInputStream(file))) {
+            int count = is.readInt();
+            for (int i = 0; i < count; i++) {
+                Path region = gameDir.resolve(is.readUTF()).normalize();
+                LAST_ACCESS.merge(region, is.readLong(), Math::max);
+            }
+        } catch (EOFException e) {
+            EbzTweaks.LOGGER.warn("Fichero de accesos del mapa truncado: " + file);
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error leyendo " + file, e);
+        }
+    }
+
+    private static void saveAccessTimes() {
+        Path file = getAccessFile();
+        Path temp = file.resolveSibling(ACCESS_FILE + ".tmp");
+        Path gameDir = Minecraft.getInstance().gameDirectory.toPath().toAbsolutePath().normalize();
+        List<RegionEntry> snapshot = entries;
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream os = new DataOutputStream(Files.newOutputStream(temp))) {
+                os.writeInt(snapshot.size());
+                for (RegionEntry entry : snapshot) {
+                    os.writeUTF(gameDir.relativize(entry.file).toString());
+                    os.writeLong(LAST_ACCESS.getOrDefault(entry.file, entry.lastAccess));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error guardando " + file, e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.world.level.ChunkPos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Que chunks de una capa tienen tesela, como un mapa de bits de 1024 bits por region.
+ * Lo persistido es la tabla de cabecera de cada {@link RegionFile}: la region se lee la
+ * primera vez que se consulta, asi que abrir el mapa no recorre el directorio y la
+ * memoria solo crece con las regiones vistas en la sesion. La lectura ocurre en el hilo que
+ * llama, asi que {@link #contains} y {@link #mark} no deben usarse en el hilo del cliente.
+ * Uno por directorio ({@link #forDir}).
+ */
+public class ExploredIndex {
+    private static final int WORDS = RegionFile.REGION_SIZE * RegionFile.REGION_SIZE / 64;
+    // Regiones sin fichero: se comparte un solo array vacio
+    private static final long[] EMPTY = new long[WORDS];
+
+    private static final Map<Path, ExploredIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final Map<Long, long[]> regions = new ConcurrentHashMap<>();
+
+    private ExploredIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * El indice del directorio. No lee nada del disco, asi que se puede llamar en el hilo del
+     * cliente.
+     */
+    public static ExploredIndex forDir(Path dir) {
+        return INDEXES.computeIfAbsent(dir.toAbsolutePath().normalize(), ExploredIndex::new);
+    }
+
+    public boolean contains(ChunkPos pos) {
+        long[] bits = getRegion(Math.floorDiv(pos.x, RegionFile.REGION_SIZE), Math.floorDiv(pos.z, RegionFile.REGION_SIZE));
+        int index = RegionFile.getIndex(pos);
+        return (bits[index >> 6] & (1L << index)) != 0;
+    }
+
+    private long[] getRegion(int regionX, int regionZ) {
+        return regions.computeIfAbsent(ChunkPos.asLong(regionX, regionZ), k -> load(regionX, regionZ));
+    }
+
+    public void mark(ChunkPos pos) {
+        int regionX = Math.floorDiv(pos.x, RegionFile.REGION_SIZE);
+        int regionZ = Math.floorDiv(pos.z, RegionFile.REGION_SIZE);
+        int index = RegionFile.getIndex(pos);
+        regions.compute(ChunkPos.asLong(regionX, regionZ), (k, bits) -> {
+            if (bits == null) {
+                bits = load(regionX, regionZ);
+            }
+            if (bits == EMPTY) {
+                bits = new long[WORDS];
+            }
+            bits[index >> 6] |= 1L << index;
+            return bits;
+        });
+    }
+
+    /**
+     * Olvida una region cuyo fichero se ha borrado.
+     */
+    public void forget(int regionX, int regionZ) {
+        regions.put(ChunkPos.asLong(regionX, regionZ), EMPTY);
+    }
+
+    /**
+     * Chunks marcados en las regiones cargadas hasta ahora. No lee del disco.
+     */
+    public int countLoaded() {
+        int count = 0;
+        for (long[] bits : regions.values()) {
+            for (long word : bits) {
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    private long[] load(int regionX, int regionZ) {
+        Path file = dir.resolve(RegionFile.getFileName(regionX, regionZ));
+        if (!Files.exists(file)) {
+            return EMPTY;
+        }
+        try {
+            return RegionFile.readPresentChunks(file);
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error leyendo indice de " + file.getFileName(), e);
+            return EMPTY;
+        }
+    }
+}
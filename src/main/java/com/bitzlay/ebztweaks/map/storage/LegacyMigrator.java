@@ -0,0 +1,297 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Migracion de una sola vez de los formatos anteriores a las regiones de
+ * {@code ebztweaks/worldmap/<dim>} que lee {@link TileStore}: los {@code chunk_x_z.dat} crudos
+ * de ese directorio (y de sus franjas de cuevas), sus imagenes de region {@code r.x.z.map} y
+ * los gzip de {@code EbzWorldMap/<dim>/chunks}. Corre en segundo plano en un pool fork-join la
+ * primera vez que se abre la dimension. Cada fichero antiguo se borra solo cuando sus teselas
+ * ya estan en la region con la cabecera escrita; al terminar sin errores se escribe la
+ * cabecera de los directorios para no volver a mirarlos.
+ */
+public final class LegacyMigrator {
+    private static final int REGION_SIZE = RegionFile.REGION_SIZE;
+    private static final int CHUNK_SIZE = 16;
+    // Lado en pixeles de la imagen de un r.x.z.map
+    private static final int REGION_PIXELS = REGION_SIZE * CHUNK_SIZE;
+    private static final int FILES_PER_TASK = 64;
+    private static final int PROGRESS_LOG_STEP = 10;
+
+    // Hilos daemon del pool por defecto; la mitad de los nucleos para no quitarle CPU al juego
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final Set<Path> STARTED = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger TOTAL = new AtomicInteger();
+    private static final AtomicInteger DONE = new AtomicInteger();
+
+    /**
+     * Migra un fichero antiguo y devuelve el que se puede borrar en cuanto se escriban las
+     * cabeceras de las regiones, o {@code null} si hay que dejarlo.
+     */
+    @FunctionalInterface
+    private interface Job {
+        Path run() throws IOException;
+    }
+
+    private LegacyMigrator() {
+    }
+
+    /**
+     * Lanza la migracion de los ficheros antiguos de la dimension, si los hay.
+     */
+    public static void start(Level world) {
+        Path gameDir = Minecraft.getInstance().gameDirectory.toPath();
+        String dimension = world.dimension().location().toString().replace(':', '_');
+        Path worldMap = gameDir.resolve("ebztweaks").resolve("worldmap").resolve(dimension);
+        Path chunkStorage = gameDir.resolve("EbzWorldMap").resolve(dimension);
+        boolean oldWorldMap = Files.isDirectory(worldMap) && needsMigration(worldMap);
+        boolean oldChunkStorage = Files.isDirectory(chunkStorage) && needsMigration(chunkStorage);
+        if (!oldWorldMap && !oldChunkStorage) {
+            if (!Files.exists(worldMap)) {
+                // Dimension nueva: no hay nada antiguo, se crea ya en el formato actual
+                StorageFormat.write(worldMap, StorageFormat.CURRENT);
+            }
+            return;
+        }
+        if (!STARTED.add(worldMap.toAbsolutePath().normalize())) {
+            return;
+        }
+
+        CompletableFuture.runAsync(() -> {
+            List<Job> jobs = new ArrayList<>();
+            try {
+                if (oldWorldMap) {
+                    collectWorldMap(worldMap, jobs);
+                }
+                if (oldChunkStorage) {
+                    collectChunkStorage(chunkStorage, worldMap, jobs);
+                }
+            } catch (IOException e) {
+                EbzTweaks.LOGGER.error("Error buscando ficheros antiguos del mapa de " + dimension, e);
+                STARTED.remove(worldMap.toAbsolutePath().normalize());
+                return;
+            }
+
+            if (!jobs.isEmpty()) {
+                EbzTweaks.LOGGER.info("Migrando " + jobs.size() + " ficheros del mapa a " + worldMap);
+            }
+            TOTAL.addAndGet(jobs.size());
+            AtomicInteger failures = new AtomicInteger();
+            new MigrateTask(jobs, 0, jobs.size(), failures).invoke();
+
+            if (failures.get() == 0) {
+                if (oldChunkStorage) {
+                    StorageFormat.write(chunkStorage, StorageFormat.CURRENT);
+                }
+                StorageFormat.write(worldMap, StorageFormat.CURRENT);
+                EbzTweaks.LOGGER.info("Mapa migrado al formato " + StorageFormat.CURRENT + " en " + worldMap);
+            } else {
+                // Lo que fallo sigue en su fichero antiguo; se reintenta la proxima vez
+                EbzTweaks.LOGGER.warn(failures.get() + " ficheros del mapa sin migrar a " + worldMap);
+                STARTED.remove(worldMap.toAbsolutePath().normalize());
+            }
+        }, POOL);
+    }
+
+    public static boolean needsMigration(Path root) {
+        return StorageFormat.read(root) < StorageFormat.CURRENT;
+    }
+
+    /**
+     * Fraccion migrada (0 a 1), o -1 si no hay ninguna migracion en curso.
+     */
+    public static float getProgress() {
+        int total = TOTAL.get();
+        int done = DONE.get();
+        return total == 0 || done >= total ? -1 : (float) done / total;
+    }
+
+    private static void collectWorldMap(Path root, List<Job> jobs) throws IOException {
+        collectChunkFiles(root, jobs, file -> TileStore.migrateLegacyFile(root, file) ? file : null);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "r.*.*.map")) {
+            for (Path file : stream) {
+                String[] parts = file.getFileName().toString().split("\\.");
+                if (parts.length != 4) {
+                    continue;
+                }
+                try {
+                    int regionX = Integer.parseInt(parts[1]);
+                    int regionZ = Integer.parseInt(parts[2]);
+                    jobs.add(() -> {
+                        migrateRegionImage(root, file, regionX, regionZ);
+                        return file;
+                    });
+                } catch (NumberFormatException e) {
+                    EbzTweaks.LOGGER.error("Invalid region filename: " + file.getFileName());
+                }
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "cave_*")) {
+            for (Path dir : stream) {
+                if (Files.isDirectory(dir)) {
+                    collectChunkFiles(dir, jobs, file -> TileStore.migrateLegacyFile(dir, file) ? file : null);
+                }
+            }
+        }
+    }
+
+    private static void collectChunkStorage(Path root, Path worldMap, List<Job> jobs) throws IOException {
+        Path chunksDir = root.resolve("chunks");
+        if (Files.isDirectory(chunksDir)) {
+            collectChunkFiles(chunksDir, jobs, file -> migrateChunkStorageFile(worldMap, file));
+        }
+    }
+
+    /**
+     * Pasa un fichero gzip de {@code EbzWorldMap} a la region de {@code worldMap}. Si la region
+     * ya tiene ese chunk gana la region, que es mas reciente.
+     */
+    private static Path migrateChunkStorageFile(Path worldMap, Path file) throws IOException {
+        ChunkPos pos = StorageFormat.parseLegacyChunkName(file.getFileName().toString());
+        if (pos == null) {
+            return null;
+        }
+        TileStore.importColors(worldMap, pos, readLegacyPixels(file));
+        return file;
+    }
+
+    /**
+     * Pixeles de un chunk de {@code EbzWorldMap}: enteros big-endian en gzip, columna a columna.
+     */
+    private static int[] readLegacyPixels(Path chunkFile) throws IOException {
+        int[] pixels = new int[CHUNK_SIZE * CHUNK_SIZE];
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(chunkFile))) {
+            for (int x = 0; x < CHUNK_SIZE; x++) {
+                for (int z = 0; z < CHUNK_SIZE; z++) {
+                    pixels[z * CHUNK_SIZE + x] = readInt(is);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Parte una imagen de region {@code r.x.z.map} (enteros big-endian fila a fila, sin
+     * cabecera; si el fichero se corto lo que falta es transparente) en teselas de su
+     * directorio. Los chunks transparentes no se llegaron a dibujar y se saltan.
+     */
+    private static void migrateRegionImage(Path dir, Path file, int regionX, int regionZ) throws IOException {
+        IntBuffer image = ByteBuffer.wrap(Files.readAllBytes(file)).asIntBuffer();
+        int[] pixels = new int[CHUNK_SIZE * CHUNK_SIZE];
+        for (int chunkZ = 0; chunkZ < REGION_SIZE; chunkZ++) {
+            for (int chunkX = 0; chunkX < REGION_SIZE; chunkX++) {
+                boolean drawn = false;
+                for (int z = 0; z < CHUNK_SIZE; z++) {
+                    for (int x = 0; x < CHUNK_SIZE; x++) {
+                        int index = (chunkZ * CHUNK_SIZE + z) * REGION_PIXELS + chunkX * CHUNK_SIZE + x;
+                        int color = index < image.limit() ? image.get(index) : 0;
+                        pixels[z * CHUNK_SIZE + x] = color;
+                        drawn |= (color >>> 24) != 0;
+                    }
+                }
+                if (drawn) {
+                    TileStore.importColors(dir, new ChunkPos(regionX * REGION_SIZE + chunkX, regionZ * REGION_SIZE + chunkZ), pixels);
+                }
+            }
+        }
+    }
+
+    private static int readInt(InputStream is) throws IOException {
+        return (is.read() << 24) | (is.read() << 16) | (is.read() << 8) | is.read();
+    }
+
+    private interface FileMigration {
+        Path migrate(Path file) throws IOException;
+    }
+
+    private static void collectChunkFiles(Path dir, List<Job> jobs, FileMigration migration) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "chunk_*.dat")) {
+            for (Path file : stream) {
+                jobs.add(() -> migration.migrate(file));
+            }
+        }
+    }
+
+    /**
+     * Parte la lista hasta {@link #FILES_PER_TASK} ficheros por tarea. Cada tarea escribe las
+     * cabeceras de las regiones antes de borrar sus ficheros antiguos.
+     */
+    private static class MigrateTask extends RecursiveAction {
+        private final List<Job> jobs;
+        private final int from, to;
+        private final AtomicInteger failures;
+
+        MigrateTask(List<Job> jobs, int from, int to, AtomicInteger failures) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FILES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MigrateTask(jobs, from, middle, failures), new MigrateTask(jobs, middle, to, failures));
+                return;
+            }
+
+            List<Path> migrated = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                try {
+                    Path file = jobs.get(i).run();
+                    if (file != null) {
+                        migrated.add(file);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failures.incrementAndGet();
+                    EbzTweaks.LOGGER.error("Error migrando fichero del mapa", e);
+                }
+                logProgress(DONE.incrementAndGet());
+            }
+
+            if (!RegionFileCache.flushAll()) {
+                // Sin cabecera la region no tiene las teselas: los antiguos se quedan
+                failures.addAndGet(migrated.size());
+                return;
+            }
+            for (Path file : migrated) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                    EbzTweaks.LOGGER.error("Error borrando " + file, e);
+                }
+            }
+        }
+
+        private static void logProgress(int done) {
+            int total = TOTAL.get();
+            int step = Math.max(1, total * PROGRESS_LOG_STEP / 100);
+            if (done % step == 0 || done == total) {
+                EbzTweaks.LOGGER.info("Migracion del mapa: " + done + "/" + total);
+            }
+        }
+    }
+}
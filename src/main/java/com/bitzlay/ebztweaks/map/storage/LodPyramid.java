@@ -0,0 +1,379 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Piramide de teselas de baja resolucion de una capa, como un quadtree: el nivel 1 tiene
+ * un pixel por cada 2x2 bloques, y cada nivel siguiente se reduce a la mitad desde el de
+ * abajo. Todas las teselas son de {@link RegionTexture#SIZE} pixeles, asi que la del nivel
+ * {@code n} cubre {@code 2^n} regiones de lado y dibujar el mapa a cualquier zoom cuesta lo
+ * mismo. El nivel 0 son las propias regiones del mapa.
+ *
+ * <p>Se actualiza por chunk ({@link #updateChunk}): solo se rehace el rectangulo afectado en
+ * cada nivel y se para en cuanto un nivel no cambia. Las teselas se guardan en
+ * {@code lod/} con {@link TileCodec}; la cuota de disco no las borra. Todo el trabajo va en
+ * un hilo propio para no cargar ni reducir teselas en el de render.
+ */
+public class LodPyramid {
+    public static final int MAX_LEVEL = 6;
+    private static final int TILE_SIZE = RegionTexture.SIZE;
+    private static final int MAX_LOADED_TILES = 64;
+    private static final int MAGIC = 0x45425A4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = MapFiles.HEADER_BYTES;
+
+    // Un hilo para todas las piramides: las teselas solo se crean, cargan y desalojan en ese hilo
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "EbzMap-Lod");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final Path dir;
+    private final String texturePrefix;
+    private final Map<Long, LodTile> tiles = new ConcurrentHashMap<>();
+    // Teselas ya buscadas en disco (esten o no), para no volver a pedirlas cada frame
+    private final Set<Long> requested = ConcurrentHashMap.newKeySet();
+    private final WriteBehindQueue writes = new WriteBehindQueue("lod", null);
+    private volatile boolean closed;
+
+    private static class LodTile {
+        final int level, x, z;
+        final RegionTexture texture;
+        volatile long lastAccess;
+
+        LodTile(int level, int x, int z, RegionTexture texture) {
+            this.level = level;
+            this.x = x;
+            this.z = z;
+            this.texture = texture;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param layerDir      directorio de la capa; las teselas van en {@code layerDir/lod}
+     * @param texturePrefix prefijo de las texturas, para no mezclar capas
+     */
+    public LodPyramid(Path layerDir, String texturePrefix) {
+        this.dir = layerDir.resolve("lod");
+        this.texturePrefix = texturePrefix;
+    }
+
+    /**
+     * Nivel a dibujar con {@code zoom} pixeles por bloque: el mas bajo que no tenga mas de un
+     * pixel de tesela por pixel de pantalla.
+     */
+    public static int getLevel(double zoom) {
+        int level = 0;
+        while (level < MAX_LEVEL && zoom * (1 << (level + 1)) <= 1.0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Bloques de lado de una tesela del nivel.
+     */
+    public static int getTileBlocks(int level) {
+        return TILE_SIZE << level;
+    }
+
+    /**
+     * Media de cuatro pixeles, canal a canal, sin contar los transparentes (que quedarian
+     * como un borde oscuro). Si los cuatro lo son, transparente.
+     */
+    static int averageColors(int c1, int c2, int c3, int c4) {
+        int a = 0, r = 0, g = 0, b = 0, count = 0;
+        for (int color : new int[]{c1, c2, c3, c4}) {
+            if ((color >>> 24) == 0) {
+                continue;
+            }
+            a += color >>> 24;
+            r += (color >> 16) & 0xFF;
+            g += (color >> 8) & 0xFF;
+            b += color & 0xFF;
+            count++;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        return (a / count) << 24 | (r / count) << 16 | (g / count) << 8 | b / count;
+    }
+
+    /**
+     * Textura de una tesela con los cambios subidos, o {@code null} si no esta cargada; en
+     * ese caso se pide en segundo plano. Hilo de render.
+     */
+    public ResourceLocation getTexture(int level, int tileX, int tileZ) {
+        long key = key(level, tileX, tileZ);
+        LodTile tile = tiles.get(key);
+        if (tile == null) {
+            if (requested.add(key)) {
+                submit(() -> {
+                    if (Files.exists(getFile(level, tileX, tileZ))) {
+                        getTile(level, tileX, tileZ);
+                    }
+                });
+            }
+            return null;
+        }
+        tile.lastAccess = System.currentTimeMillis();
+        return tile.texture.upload();
+    }
+
+    /**
+     * Propaga los pixeles ya sombreados de un chunk (16x16, indice z * 16 + x) por todos los
+     * niveles. Se puede llamar desde cualquier hilo.
+     */
+    public void updateChunk(ChunkPos pos, int[] pixels) {
+        int[] copy = pixels.clone();
+        submit(() -> apply(pos, copy));
+    }
+
+    /**
+     * Llena la piramide con los chunks guardados en las regiones de {@code regionDir}, una sola
+     * vez por capa: para mapas guardados antes de que hubiera LOD. Va region a region para no
+     * acaparar el hilo.
+     *
+     * @param pixels pixeles sombreados de un chunk guardado, o {@code null} si no hay
+     */
+    public void backfill(Path regionDir, Function<ChunkPos, int[]> pixels) {
+        if (StorageFormat.read(dir) >= StorageFormat.CURRENT) {
+            return;
+        }
+        submit(() -> {
+            Deque<Path> files = new ArrayDeque<>();
+            if (!Files.isDirectory(regionDir)) {
+                // Capa nueva: todo lo que llegue ya pasa por updateChunk
+                StorageFormat.write(dir, StorageFormat.CURRENT);
+                return;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(regionDir, "r.*.*.ebz")) {
+                stream.forEach(files::add);
+            } catch (IOException e) {
+                EbzTweaks.LOGGER.error("Error buscando regiones en " + regionDir, e);
+                return;
+            }
+            EbzTweaks.LOGGER.info("Construyendo LOD del mapa para " + files.size() + " regiones en " + regionDir);
+            backfillNext(files, pixels);
+        });
+    }
+
+    private void backfillNext(Deque<Path> files, Function<ChunkPos, int[]> pixels) {
+        Path file = files.poll();
+        if (file == null) {
+            writes.flush();
+            StorageFormat.write(dir, StorageFormat.CURRENT);
+            EbzTweaks.LOGGER.info("LOD del mapa construido en " + dir);
+            return;
+        }
+
+        String[] parts = file.getFileName().toString().split("\\.");
+        try {
+            int regionX = Integer.parseInt(parts[1]);
+            int regionZ = Integer.parseInt(parts[2]);
+            long[] present = RegionFile.readPresentChunks(file);
+            for (int index = 0; index < present.length * 64; index++) {
+                if ((present[index >> 6] & (1L << index)) == 0) {
+                    continue;
+                }
+                ChunkPos pos = new ChunkPos(regionX * RegionTexture.CHUNKS + index % RegionTexture.CHUNKS,
+                        regionZ * RegionTexture.CHUNKS + index / RegionTexture.CHUNKS);
+                int[] chunkPixels = pixels.apply(pos);
+                if (chunkPixels != null) {
+                    apply(pos, chunkPixels);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            EbzTweaks.LOGGER.error("Error construyendo LOD de " + file.getFileName(), e);
+        }
+        // La siguiente region va detras de lo que se haya encolado mientras tanto
+        submit(() -> backfillNext(files, pixels));
+    }
+
+    /**
+     * Escribe todo lo pendiente y libera las texturas. Espera a que el hilo termine lo
+     * encolado para esta piramide.
+     */
+    public void close() {
+        closed = true;
+        try {
+            WORKER.submit(() -> {
+                writes.close();
+                for (LodTile tile : tiles.values()) {
+                    tile.texture.close();
+                }
+                tiles.clear();
+                requested.clear();
+            }).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            EbzTweaks.LOGGER.error("Error cerrando LOD de " + dir, e);
+        }
+    }
+
+    private void submit(Runnable task) {
+        if (closed) {
+            return;
+        }
+        WORKER.execute(() -> {
+            if (closed) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                EbzTweaks.LOGGER.error("Error actualizando LOD de " + dir, e);
+            }
+        });
+    }
+
+    private void apply(ChunkPos pos, int[] pixels) {
+        // Coordenadas en pixeles del nivel actual; el nivel 1 deja el chunk en 8x8
+        int width = RegionTexture.CHUNK_SIZE / 2;
+        int height = RegionTexture.CHUNK_SIZE / 2;
+        int pixelX = pos.x * width;
+        int pixelZ = pos.z * height;
+        int[] reduced = downsample(pixels, RegionTexture.CHUNK_SIZE, RegionTexture.CHUNK_SIZE);
+
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            int tileX = Math.floorDiv(pixelX, TILE_SIZE);
+            int tileZ = Math.floorDiv(pixelZ, TILE_SIZE);
+            int localX = pixelX - tileX * TILE_SIZE;
+            int localZ = pixelZ - tileZ * TILE_SIZE;
+
+            LodTile tile = getTile(level, tileX, tileZ);
+            if (!tile.texture.update(localX, localZ, width, height, reduced)) {
+                // Si este nivel no cambia, los de encima tampoco
+                return;
+            }
+            scheduleSave(tile);
+            if (level == MAX_LEVEL) {
+                return;
+            }
+
+            // El rectangulo del nivel siguiente, alineado a pares dentro de la tesela
+            int fromX = localX & ~1;
+            int fromZ = localZ & ~1;
+            int toX = (localX + width + 1) & ~1;
+            int toZ = (localZ + height + 1) & ~1;
+            int[] source = tile.texture.read(fromX, fromZ, toX - fromX, toZ - fromZ);
+            if (source == null) {
+                return;
+            }
+            reduced = downsample(source, toX - fromX, toZ - fromZ);
+            pixelX = (tileX * TILE_SIZE + fromX) / 2;
+            pixelZ = (tileZ * TILE_SIZE + fromZ) / 2;
+            width = (toX - fromX) / 2;
+            height = (toZ - fromZ) / 2;
+        }
+    }
+
+    private static int[] downsample(int[] pixels, int width, int height) {
+        int outWidth = width / 2;
+        int outHeight = height / 2;
+        int[] out = new int[outWidth * outHeight];
+        for (int z = 0; z < outHeight; z++) {
+            for (int x = 0; x < outWidth; x++) {
+                int i = z * 2 * width + x * 2;
+                out[z * outWidth + x] = averageColors(pixels[i], pixels[i + 1], pixels[i + width], pixels[i + width + 1]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Tesela cargada o creada (leyendola de disco si existe). Solo en el hilo de la piramide.
+     */
+    private LodTile getTile(int level, int tileX, int tileZ) {
+        long key = key(level, tileX, tileZ);
+        LodTile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new LodTile(level, tileX, tileZ,
+                    new RegionTexture(texturePrefix + "lod_" + level + "_" + tileX + "_" + tileZ));
+            load(tile);
+            tiles.put(key, tile);
+            requested.add(key);
+            if (tiles.size() > MAX_LOADED_TILES) {
+                LodTile current = tile;
+                tiles.values().stream()
+                        .filter(t -> t != current)
+                        .min(Comparator.comparingLong(t -> t.lastAccess))
+                        .ifPresent(this::evict);
+            }
+        }
+        tile.lastAccess = System.currentTimeMillis();
+        return tile;
+    }
+
+    private void evict(LodTile tile) {
+        long key = key(tile.level, tile.x, tile.z);
+        // Lo pendiente se escribe antes de cerrar la imagen
+        writes.flush(key);
+        tiles.remove(key);
+        requested.remove(key);
+        tile.texture.close();
+    }
+
+    private void scheduleSave(LodTile tile) {
+        writes.submit(key(tile.level, tile.x, tile.z), () -> save(tile));
+    }
+
+    private void load(LodTile tile) {
+        Path file = getFile(tile.level, tile.x, tile.z);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            ByteBuffer data = MapFiles.read(file);
+            if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                EbzTweaks.LOGGER.warn("Tesela LOD invalida, se reconstruira: " + file);
+                return;
+            }
+            data.position(HEADER_BYTES);
+            tile.texture.decode(data);
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error leyendo " + file, e);
+        }
+    }
+
+    private void save(LodTile tile) {
+        byte[] encoded = tile.texture.encode();
+        if (encoded == null) {
+            return;
+        }
+        Path file = getFile(tile.level, tile.x, tile.z);
+        try {
+            MapFiles.write(file, MAGIC, VERSION, encoded);
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error guardando " + file, e);
+        }
+    }
+
+    private Path getFile(int level, int tileX, int tileZ) {
+        return dir.resolve(String.format("l%d.%d.%d.lod", level, tileX, tileZ));
+    }
+
+    private static long key(int level, int tileX, int tileZ) {
+        return (long) level << 48 | (tileX & 0xFFFFFFL) << 24 | (tileZ & 0xFFFFFFL);
+    }
+}
@@ -1,362 +1,619 @@
 package com.bitzlay.ebztweaks.map.storage;
 
 import com.bitzlay.ebztweaks.EbzTweaks;
-import com.bitzlay.ebztweaks.map.core.MapColorPalette;
-import com.mojang.blaze3d.platform.NativeImage;
+import com.bitzlay.ebztweaks.map.core.BiomeTint;
+import com.bitzlay.ebztweaks.map.core.ChunkChangeListener;
+import com.bitzlay.ebztweaks.map.core.ChunkScanResult;
+import com.bitzlay.ebztweaks.map.core.ChunkSnapshot;
+import com.bitzlay.ebztweaks.map.core.MapConfig;
+import com.bitzlay.ebztweaks.map.core.MapEvents;
+import com.bitzlay.ebztweaks.map.core.MapLayer;
+import com.bitzlay.ebztweaks.map.core.MappingScheduler;
+import com.bitzlay.ebztweaks.map.core.ReliefShader;
+import com.bitzlay.ebztweaks.map.core.SurfaceScanner;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.client.Minecraft;
-import net.minecraft.core.BlockPos;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.core.registries.Registries;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Block;
-import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
 
-import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class MapChunkManager {
+public class MapChunkManager implements ChunkChangeListener {
     private static final int REGION_SIZE = 32;
     private static final int CHUNK_SIZE = 16;
-    private static final int MAX_CACHED_REGIONS = 9;
+    // 1 MB de imagen y otro de textura por region
+    private static final int MAX_CACHED_REGIONS = 64;
     private static final int MAX_LOADED_CHUNKS = 256;
+    // Cada cuanto se avisa a la cuota de que una region sigue en pantalla
+    private static final long VIEW_TOUCH_INTERVAL_MS = 60 * 1000;
+    // Capas de cuevas abiertas ademas de la activa; las usadas hace mas tiempo se cierran
+    private static final int MAX_CACHED_CAVE_LAYERS = 2;
+    // Para que las texturas de una capa reabierta no se llamen como las de la que se esta cerrando
+    private static final AtomicInteger LAYER_SERIAL = new AtomicInteger();
 
     private final Level world;
     private final Path saveDir;
-    private final Map<Long, RegionData> loadedRegions = new ConcurrentHashMap<>();
-    private final Map<Long, ChunkData> loadedChunks = new ConcurrentHashMap<>();
     private final ExecutorService executor;
-    private final Set<ChunkPos> generatedChunks = ConcurrentHashMap.newKeySet();
-    private final Queue<ChunkPos> chunkLoadQueue = new ConcurrentLinkedQueue<>();
-    private final BlockPos.MutableBlockPos mutablePos = new BlockPos.MutableBlockPos();
-
-    public static class ChunkInfo {
-        private final ResourceLocation textureLocation;
-        private final boolean generated;
-
-        public ChunkInfo(ResourceLocation textureLocation, boolean generated) {
-            this.textureLocation = textureLocation;
-            this.generated = generated;
-        }
-
-        public ResourceLocation getTexture() {
-            return textureLocation;
-        }
-
-        public boolean isGenerated() {
-            return generated;
-        }
-    }
-
+    private final MappingScheduler scheduler = new MappingScheduler(this::mapChunk);
+    // Chunks que el mapa pidio abrir y aun esperan turno en el planificador; hilo del cliente
+    private final LongOpenHashSet viewRequests = new LongOpenHashSet();
+    private final SurfaceScanner scanner;
+
+    // La superficie, siempre al dia, y las ultimas capas de cuevas visitadas
+    private final Map<MapLayer, LayerTiles> layers = new ConcurrentHashMap<>();
+    // Capas de cuevas abiertas por orden de uso, la activa al final; hilo del cliente
+    private final LinkedHashSet<MapLayer> caveLayers = new LinkedHashSet<>();
+    private final LayerTiles surface;
+    private volatile LayerTiles active;
+    private boolean caveView = false;
+
+    /**
+     * Chunk abierto en el mapa. Lo escriben el hilo del cliente y los del pool, y al sombrear
+     * un vecino tambien se toca su textura: {@code colors}, {@code heights} y el sombreado se
+     * cambian con el lock del propio ChunkData, sin tener nunca el de dos chunks a la vez. Si
+     * hace falta tambien el de la cache de columnas, se toma antes.
+     */
     private static class ChunkData {
-        private final NativeImage image;
-        private final ResourceLocation textureLocation;
-        private volatile boolean isInitialized = false;
+        private final RegionData region;
         private volatile boolean needsUpdate = true;
         private volatile boolean isGenerated = false;
         private long lastAccess;
+        // Colores sin sombrear y alturas; la textura de la region tiene la version sombreada
+        private final int[] colors = new int[ChunkSnapshot.COLUMNS];
+        private final byte[] heights = new byte[ChunkSnapshot.COLUMNS];
+        private volatile boolean hasHeights = false;
 
-        ChunkData(ChunkPos pos) {
-            this.image = new NativeImage(NativeImage.Format.RGBA, CHUNK_SIZE, CHUNK_SIZE, false);
-            this.textureLocation = new ResourceLocation("ebztweaks", "chunk_" + pos.x + "_" + pos.z);
+        ChunkData(RegionData region) {
+            this.region = region;
             this.lastAccess = System.currentTimeMillis();
-
-            // Inicializar la textura en el hilo principal
-            Minecraft.getInstance().execute(() -> {
-                var texture = new net.minecraft.client.renderer.texture.DynamicTexture(image);
-                Minecraft.getInstance().getTextureManager().register(textureLocation, texture);
-                isInitialized = true;
-            });
-        }
-
-        void close() {
-            if (image != null) {
-                image.close();
-            }
-            if (isInitialized) {
-                Minecraft.getInstance().execute(() -> {
-                    Minecraft.getInstance().getTextureManager().release(textureLocation);
-                });
-            }
-        }
-
-        ChunkInfo toInfo() {
-            return new ChunkInfo(textureLocation, isGenerated);
         }
 
         void update() {
-            if (needsUpdate && isInitialized) {
-                Minecraft.getInstance().execute(() -> {
-                    needsUpdate = false;
-                });
-            }
             lastAccess = System.currentTimeMillis();
+            region.lastAccess = lastAccess;
         }
     }
 
+    /**
+     * Los chunks abiertos de una region comparten una sola textura.
+     */
     private static class RegionData {
         final int regionX, regionZ;
-        final NativeImage image;
-        long lastAccess;
-        final Set<ChunkPos> containedChunks = new HashSet<>();
-
-        RegionData(int x, int z) {
+        final RegionTexture texture;
+        // Fichero de la region en disco, para la cuota
+        final Path file;
+        volatile long lastAccess;
+        long lastViewTouch;
+        final Set<ChunkPos> containedChunks = ConcurrentHashMap.newKeySet();
+
+        RegionData(String texturePrefix, Path dir, int x, int z) {
             this.regionX = x;
             this.regionZ = z;
-            this.image = new NativeImage(NativeImage.Format.RGBA, REGION_SIZE * CHUNK_SIZE, REGION_SIZE * CHUNK_SIZE, false);
+            this.file = dir.resolve(RegionFile.getFileName(x, z));
+            this.texture = new RegionTexture(texturePrefix + "region_" + x + "_" + z);
             this.lastAccess = System.currentTimeMillis();
         }
 
         void close() {
-            if (image != null) {
-                image.close();
+            texture.close();
+        }
+    }
+
+    /**
+     * Todo lo que el mapa guarda de una capa: texturas abiertas, ultimo resultado de cada
+     * chunk cargado en el cliente (para recolorear solo las columnas que cambian),
+     * regiones y teselas en disco.
+     */
+    private static class LayerTiles {
+        final MapLayer layer;
+        final TileStore store;
+        final LodPyramid lod;
+        // Las texturas de cada capa van aparte para no pisarse
+        final String texturePrefix;
+        final Map<Long, ChunkData> loadedChunks = new ConcurrentHashMap<>();
+        final Map<Long, MapTile> columnCaches = new ConcurrentHashMap<>();
+        final Map<Long, RegionData> loadedRegions = new ConcurrentHashMap<>();
+
+        LayerTiles(MapLayer layer, Path dir, TileStore store) {
+            this.layer = layer;
+            this.store = store;
+            this.texturePrefix = layer.isCave() ? layer.getDirectoryName() + "_" + LAYER_SERIAL.incrementAndGet() + "/" : "";
+            this.lod = new LodPyramid(dir, texturePrefix);
+        }
+
+        void close() {
+            loadedChunks.clear();
+
+            for (RegionData region : loadedRegions.values()) {
+                region.close();
             }
+            loadedRegions.clear();
+            columnCaches.clear();
+            lod.close();
+            store.close();
         }
     }
 
     public MapChunkManager(Level world) {
         this.world = world;
+        this.scanner = new SurfaceScanner(world);
         this.saveDir = Minecraft.getInstance().gameDirectory.toPath()
                 .resolve("ebztweaks")
                 .resolve("worldmap")
                 .resolve(world.dimension().location().toString().replace(':', '_'));
 
-        try {
-            Files.createDirectories(saveDir);
-        } catch (IOException e) {
-            EbzTweaks.LOGGER.error("Error creating save directory", e);
-        }
-
         this.executor = Executors.newFixedThreadPool(2, r -> {
             Thread t = new Thread(r, "MapChunkManager-Worker");
             t.setDaemon(true);
             return t;
         });
 
-        loadGeneratedChunksIndex();
+        // Los ficheros de formatos anteriores se pasan al actual en segundo plano
+        LegacyMigrator.start(world);
+        DiskQuota.start();
+        this.surface = getLayerTiles(MapLayer.SURFACE);
+        this.active = surface;
+        MapEvents.addListener(this);
     }
 
-    public CompletableFuture<ChunkInfo> getChunk(ChunkPos pos, double zoom) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                long chunkKey = pos.toLong();
-                ChunkData chunk = loadedChunks.computeIfAbsent(pos.toLong(), k -> {
-                    EbzTweaks.LOGGER.info("Creating new chunk data for " + pos.x + "," + pos.z);
-                    return new ChunkData(pos);
-                });
-                chunk.lastAccess = System.currentTimeMillis();
+    private LayerTiles getLayerTiles(MapLayer layer) {
+        return layers.computeIfAbsent(layer, l -> {
+            Path dir = l.isCave() ? saveDir.resolve(l.getDirectoryName()) : saveDir;
+            boolean legacy = LegacyMigrator.needsMigration(saveDir);
+            LayerTiles tiles = new LayerTiles(l, dir, new TileStore(dir,
+                    world.registryAccess().registryOrThrow(Registries.BIOME), legacy));
+            if (!legacy) {
+                // Con ficheros sin migrar se deja para la proxima sesion
+                tiles.lod.backfill(dir, pos -> shadeStored(tiles, pos));
+            }
+            return tiles;
+        });
+    }
 
-                if (chunk.needsUpdate && isChunkNearby(pos)) {
-                    EbzTweaks.LOGGER.info("Updating chunk " + pos.x + "," + pos.z);
-                    updateChunk(pos, chunk);
-                }
-                else if (!chunk.isGenerated && generatedChunks.contains(pos)) {
-                    EbzTweaks.LOGGER.info("Loading chunk from disk " + pos.x + "," + pos.z);
-                    loadChunkFromDisk(pos, chunk);
-                }
+    /**
+     * Pide abrir un chunk en el mapa. No hace el trabajo aqui: entra en el planificador, que lo
+     * abre en su turno segun la distancia al jugador y el presupuesto del tick. Hilo del cliente.
+     */
+    public void requestChunk(ChunkPos pos) {
+        viewRequests.add(pos.toLong());
+        scheduler.enqueue(pos);
+    }
 
-                chunk.update();
-                return chunk.toInfo();
-            } catch (Exception e) {
-                EbzTweaks.LOGGER.error("Error getting chunk " + pos, e);
-                return null;
-            }
-        }, executor);
+    private void mapChunk(ChunkPos pos) {
+        if (viewRequests.remove(pos.toLong())) {
+            openChunk(pos);
+        } else {
+            mapLoadedChunk(pos);
+        }
     }
 
-    private void updateChunk(ChunkPos pos, ChunkData chunk) {
+    /**
+     * Abre el chunk en la textura de su region: desde la cache de columnas, escaneandolo si
+     * esta cargado o leyendolo del disco en segundo plano. Hilo del cliente: la copia del
+     * chunk se toma aqui y solo el coloreado y el guardado se hacen en otros hilos.
+     */
+    private void openChunk(ChunkPos pos) {
+        LayerTiles tiles = active;
         try {
-            if (!world.hasChunk(pos.x, pos.z)) {
-                EbzTweaks.LOGGER.info("Chunk no disponible: " + pos.x + "," + pos.z);
-                return;
+            // Fuera del computeIfAbsent: abrir la region puede desalojar chunks de otra
+            RegionData region = getRegionData(tiles, pos);
+            ChunkData chunk = tiles.loadedChunks.computeIfAbsent(pos.toLong(), k -> new ChunkData(region));
+            chunk.update();
+
+            MapTile cache = tiles.columnCaches.get(pos.toLong());
+            if (chunk.needsUpdate && cache != null) {
+                // Ya se ingirio al llegar del servidor: no hace falta volver a escanearlo
+                synchronized (cache) {
+                    writeColumns(tiles, pos, chunk, cache.colors, cache.heights);
+                }
+            } else if (chunk.needsUpdate && world.hasChunk(pos.x, pos.z)) {
+                // applyScan rellenara la imagen al terminar
+                mapLoadedChunk(pos);
+            } else if (!chunk.isGenerated) {
+                // Saber si hay tesela puede leer la cabecera de la region: fuera del hilo del cliente
+                executor.execute(() -> {
+                    if (tiles.store.contains(pos)) {
+                        loadChunkFromDisk(tiles, pos, chunk);
+                    }
+                });
             }
+        } catch (Exception e) {
+            EbzTweaks.LOGGER.error("Error getting chunk " + pos, e);
+        }
+    }
 
-            EbzTweaks.LOGGER.info("Actualizando chunk: " + pos.x + "," + pos.z);
-            boolean wasUpdated = false;
-            int baseX = pos.getMinBlockX();
-            int baseZ = pos.getMinBlockZ();
+    /**
+     * Encola un chunk recien recibido del servidor para colorearlo y guardarlo en segundo plano.
+     */
+    public void queueIngest(ChunkPos pos) {
+        scheduler.enqueue(pos);
+    }
 
-            // Limpiar el chunk primero
-            for (int x = 0; x < CHUNK_SIZE; x++) {
-                for (int z = 0; z < CHUNK_SIZE; z++) {
-                    chunk.image.setPixelRGBA(x, z, 0);
-                }
+    /**
+     * Avanza el planificador de mapeo con el presupuesto del tick. Se llama una vez
+     * por tick en el hilo del cliente.
+     */
+    public void tick() {
+        if (caveView) {
+            updateCaveLayer();
+        }
+        scheduler.tick();
+    }
+
+    public int getPendingCount() {
+        return scheduler.size();
+    }
+
+    public MapLayer getActiveLayer() {
+        return active.layer;
+    }
+
+    public boolean isCaveView() {
+        return caveView;
+    }
+
+    /**
+     * Alterna entre la superficie y la franja de cuevas donde esta el jugador. Las teselas
+     * de la superficie y de las ultimas franjas se conservan, asi que el cambio se sirve
+     * desde la cache.
+     */
+    public void setCaveView(boolean caveView) {
+        this.caveView = caveView;
+        if (caveView) {
+            updateCaveLayer();
+        } else {
+            switchLayer(surface);
+        }
+    }
+
+    private void updateCaveLayer() {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) {
+            return;
+        }
+        // La franja del bloque que pisa el jugador
+        MapLayer band = MapLayer.caveBand(player.getBlockY() - 1, MapConfig.CAVE_BAND_HEIGHT.get());
+        if (!band.equals(active.layer)) {
+            switchLayer(getLayerTiles(band));
+        }
+    }
+
+    private void switchLayer(LayerTiles tiles) {
+        if (tiles == active) {
+            return;
+        }
+        active = tiles;
+        EbzTweaks.LOGGER.debug("Capa del mapa: " + tiles.layer);
+        if (tiles != surface) {
+            caveLayers.remove(tiles.layer);
+            caveLayers.add(tiles.layer);
+            closeOldCaveLayers();
+        }
+
+        // Los chunks cargados que esta capa aun no tiene se escanean en segundo plano
+        for (long key : MapEvents.getLoadedChunks()) {
+            if (!tiles.columnCaches.containsKey(key)) {
+                scheduler.enqueue(new ChunkPos(key));
             }
+        }
+    }
 
-            // Actualizar con nuevos datos
-            for (int x = 0; x < CHUNK_SIZE; x++) {
-                for (int z = 0; z < CHUNK_SIZE; z++) {
-                    int worldX = baseX + x;
-                    int worldZ = baseZ + z;
-                    int color = getHighestBlockColor(worldX, worldZ);
-
-                    if (color != 0) {
-                        chunk.image.setPixelRGBA(x, z, color);
-                        wasUpdated = true;
-                        if (x % 8 == 0 && z % 8 == 0) {
-                            EbzTweaks.LOGGER.info("Color en (" + x + "," + z + "): " +
-                                    String.format("0x%08X", color));
-                        }
-                    }
-                }
+    /**
+     * Cierra las capas de cuevas que pasan de {@link #MAX_CACHED_CAVE_LAYERS} sin contar la
+     * activa: sus regiones, texturas y LOD. Se cierran en el pool, detras de lo que ya tuvieran
+     * encolado, porque vaciar sus escrituras toca el disco.
+     */
+    private void closeOldCaveLayers() {
+        Iterator<MapLayer> oldest = caveLayers.iterator();
+        while (caveLayers.size() > MAX_CACHED_CAVE_LAYERS + 1) {
+            LayerTiles tiles = layers.remove(oldest.next());
+            oldest.remove();
+            if (tiles != null) {
+                executor.execute(tiles::close);
             }
+        }
+    }
 
-            if (wasUpdated) {
-                EbzTweaks.LOGGER.info("Chunk actualizado: " + pos.x + "," + pos.z);
-                saveChunkToDisk(pos, chunk);
-                chunk.isGenerated = true;
-                generatedChunks.add(pos);
-                updateRegionData(pos, chunk);
+    /**
+     * Copia un chunk cargado y manda el coloreado al pool. La superficie se mapea siempre;
+     * la capa de cuevas activa, solo si aun no la tiene. Hilo del cliente.
+     */
+    private void mapLoadedChunk(ChunkPos pos) {
+        if (!world.hasChunk(pos.x, pos.z)) {
+            return;
+        }
+
+        LevelChunk chunk = world.getChunk(pos.x, pos.z);
+        if (scanner.getStrategy().isEmpty(chunk)) {
+            return;
+        }
+        LayerTiles current = active;
+        if (current == surface || !surface.columnCaches.containsKey(pos.toLong())) {
+            scan(scanner.snapshot(chunk, null, MapLayer.SURFACE));
+        }
+        if (current != surface && !current.columnCaches.containsKey(pos.toLong())) {
+            scan(scanner.snapshot(chunk, null, current.layer));
+        }
+    }
+
+    private void scan(ChunkSnapshot snapshot) {
+        scanner.scanAsync(snapshot)
+                .thenAcceptAsync(this::applyScan, executor)
+                .exceptionally(e -> {
+                    EbzTweaks.LOGGER.error("Error mapeando chunk " + snapshot.getPos(), e);
+                    return null;
+                });
+    }
+
+    /**
+     * Aplica un resultado completo o parcial a su capa: cache de columnas, disco, indice y,
+     * si el chunk esta abierto en el mapa, la textura de su region.
+     */
+    private void applyScan(ChunkScanResult result) {
+        ChunkPos pos = result.getPos();
+        LayerTiles tiles = layers.get(result.getLayer());
+        if (tiles == null) {
+            return;
+        }
+
+        try {
+            MapTile cache = storeColumns(tiles, result);
+            if (result.isPartial() || result.getFound() > 0) {
+                tiles.store.save(pos, cache);
             } else {
-                EbzTweaks.LOGGER.info("No se encontraron bloques para actualizar en el chunk: " +
-                        pos.x + "," + pos.z);
+                EbzTweaks.LOGGER.debug("No se encontraron bloques para actualizar en el chunk {},{}", pos.x, pos.z);
             }
 
-            chunk.needsUpdate = false;
-            chunk.update();
-
+            ChunkData chunk = tiles.loadedChunks.get(pos.toLong());
+            // Otro resultado del mismo chunk puede estar volcandose en la cache a la vez
+            synchronized (cache) {
+                if (chunk != null) {
+                    writeColumns(tiles, pos, chunk, cache.colors, cache.heights);
+                    chunk.update();
+                } else if (result.isPartial() || result.getFound() > 0) {
+                    tiles.lod.updateChunk(pos, shadeColumns(tiles, pos, cache.colors, cache.hasHeights ? cache.heights : null));
+                }
+            }
         } catch (Exception e) {
             EbzTweaks.LOGGER.error("Error actualizando chunk " + pos.x + "," + pos.z, e);
-            e.printStackTrace();
         }
     }
 
-    private int getHighestBlockColor(int x, int z) {
-        int playerY = Minecraft.getInstance().player.blockPosition().getY();
-        int maxY = Math.min(world.getMaxBuildHeight(), playerY + 64);
-        int minY = Math.max(world.getMinBuildHeight(), playerY - 64);
+    private void writeColumns(LayerTiles tiles, ChunkPos pos, ChunkData chunk, int[] colors, byte[] heights) {
+        synchronized (chunk) {
+            System.arraycopy(colors, 0, chunk.colors, 0, ChunkSnapshot.COLUMNS);
+            if (heights != null) {
+                System.arraycopy(heights, 0, chunk.heights, 0, ChunkSnapshot.COLUMNS);
+                chunk.hasHeights = true;
+            }
+            chunk.isGenerated = true;
+            chunk.needsUpdate = false;
+            shadeChunk(tiles, pos, chunk, 0, CHUNK_SIZE - 1, 0, CHUNK_SIZE - 1);
+        }
+        shadeNeighborEdges(tiles, pos);
+    }
+
+    /**
+     * Sombrea el chunk con las alturas propias y las de sus vecinos del oeste y del norte,
+     * escribe el rectangulo pedido en la textura de su region y lo pasa entero al LOD.
+     */
+    private void shadeChunk(LayerTiles tiles, ChunkPos pos, ChunkData chunk, int fromX, int toX, int fromZ, int toZ) {
+        synchronized (chunk) {
+            int[] shaded = shadeColumns(tiles, pos, chunk.colors, chunk.hasHeights ? chunk.heights : null);
+            chunk.region.texture.write(pos, shaded, fromX, toX, fromZ, toZ);
+            tiles.lod.updateChunk(pos, shaded);
+        }
+    }
 
-        mutablePos.set(x, minY, z);
-        BlockState lastState = null;
-        int lastY = minY;
+    private int[] shadeColumns(LayerTiles tiles, ChunkPos pos, int[] colors, byte[] heights) {
+        int[] shaded = new int[ChunkSnapshot.COLUMNS];
+        if (heights != null) {
+            ReliefShader.shade(colors, heights,
+                    getHeights(tiles, pos.x - 1, pos.z), getHeights(tiles, pos.x, pos.z - 1),
+                    shaded, 0, CHUNK_SIZE - 1, 0, CHUNK_SIZE - 1);
+        } else {
+            System.arraycopy(colors, 0, shaded, 0, ChunkSnapshot.COLUMNS);
+        }
+        return shaded;
+    }
 
-        // Buscar desde arriba hacia abajo
-        for (int y = maxY; y >= minY; y--) {
-            mutablePos.setY(y);
-            BlockState state = world.getBlockState(mutablePos);
+    /**
+     * Pixeles de un chunk guardado, para construir el LOD. Los bordes con vecinos que no
+     * esten en memoria quedan sin sombrear.
+     */
+    private int[] shadeStored(LayerTiles tiles, ChunkPos pos) {
+        MapTile tile = tiles.store.load(pos);
+        return tile != null ? shadeColumns(tiles, pos, tile.colors, tile.hasHeights ? tile.heights : null) : null;
+    }
 
-            // Si encontramos un bloque no aire
-            if (!state.isAir()) {
-                Block block = state.getBlock();
-                int color = MapColorPalette.getColor(block);
+    /**
+     * Al llegar un chunk, sus vecinos del este y del sur solo cambian en el borde que
+     * comparten con el: se vuelve a sombrear esa tira y nada mas.
+     */
+    private void shadeNeighborEdges(LayerTiles tiles, ChunkPos pos) {
+        ChunkData east = tiles.loadedChunks.get(ChunkPos.asLong(pos.x + 1, pos.z));
+        if (east != null && east.isGenerated) {
+            shadeChunk(tiles, new ChunkPos(pos.x + 1, pos.z), east, 0, 0, 0, CHUNK_SIZE - 1);
+            east.update();
+        }
+        ChunkData south = tiles.loadedChunks.get(ChunkPos.asLong(pos.x, pos.z + 1));
+        if (south != null && south.isGenerated) {
+            shadeChunk(tiles, new ChunkPos(pos.x, pos.z + 1), south, 0, CHUNK_SIZE - 1, 0, 0);
+            south.update();
+        }
+    }
 
-                // Log para depuración
-                EbzTweaks.LOGGER.info("Block at " + x + "," + y + "," + z + ": " +
-                        block.getName().getString() + " with color: " +
-                        String.format("0x%08X", color));
+    private byte[] getHeights(LayerTiles tiles, int chunkX, int chunkZ) {
+        long key = ChunkPos.asLong(chunkX, chunkZ);
+        MapTile cache = tiles.columnCaches.get(key);
+        if (cache != null) {
+            return cache.heights;
+        }
+        ChunkData chunk = tiles.loadedChunks.get(key);
+        return chunk != null && chunk.hasHeights ? chunk.heights : null;
+    }
 
-                if (color != 0) {
-                    return color;
+    /**
+     * Vuelca un resultado (completo o parcial) en la cache de columnas del chunk.
+     */
+    private MapTile storeColumns(LayerTiles tiles, ChunkScanResult result) {
+        MapTile cache = tiles.columnCaches.computeIfAbsent(result.getPos().toLong(), k -> new MapTile());
+        int[] colors = result.getColors();
+        int emptyColor = scanner.getStrategy().getEmptyColor();
+        // La cola de escritura puede estar codificando esta tesela en otro hilo
+        synchronized (cache) {
+            for (int i = 0; i < ChunkSnapshot.COLUMNS; i++) {
+                if (result.isPartial() && !result.getColumns().get(i)) {
+                    continue;
                 }
+                cache.colors[i] = colors[i] != 0 ? colors[i] : emptyColor;
+                cache.signatures[i] = result.getSignatures()[i];
+                cache.baseColors[i] = result.getBaseColors()[i];
+                cache.tints[i] = result.getTints()[i];
+                cache.heights[i] = result.getHeights()[i];
+                cache.floors[i] = result.getFloors()[i];
+                cache.depths[i] = result.getDepths()[i];
             }
+            System.arraycopy(result.getBiomeIds(), 0, cache.biomeIds, 0, BiomeTint.SAMPLES);
+            cache.hasHeights = true;
         }
-
-        // Si no encontramos ningún bloque válido, retornar gris transparente
-        return 0x44808080;
+        return cache;
     }
 
+    /**
+     * Llamado en el hilo del cliente cuando cambian bloques del chunk. En la superficie solo
+     * se recolorean las columnas cuya firma cambio; la franja de cuevas activa, que la firma
+     * de superficie no cubre, se vuelve a escanear entera (es pequena).
+     */
+    @Override
+    public void onChunkChanged(LevelChunk levelChunk) {
+        ChunkPos pos = levelChunk.getPos();
+        LayerTiles current = active;
+        if (current != surface && current.columnCaches.containsKey(pos.toLong())) {
+            scan(scanner.snapshot(levelChunk, null, current.layer));
+        }
 
-    private void loadChunkFromDisk(ChunkPos pos, ChunkData chunk) {
-        Path chunkFile = getChunkFile(pos);
-        if (!Files.exists(chunkFile)) return;
+        MapTile cache = surface.columnCaches.get(pos.toLong());
+        if (cache == null) {
+            // No lo hemos escaneado en esta sesion: que se rescanee entero cuando se pida
+            ChunkData chunk = surface.loadedChunks.get(pos.toLong());
+            if (chunk != null) {
+                chunk.needsUpdate = true;
+            }
+            return;
+        }
 
-        try (InputStream is = Files.newInputStream(chunkFile)) {
-            for (int x = 0; x < CHUNK_SIZE; x++) {
-                for (int z = 0; z < CHUNK_SIZE; z++) {
-                    chunk.image.setPixelRGBA(x, z, readInt(is));
+        int[] signatures = ChunkSnapshot.computeSignatures(levelChunk);
+        BitSet dirty = new BitSet(ChunkSnapshot.COLUMNS);
+        // Mismo lock que storeColumns y la cola de escritura
+        synchronized (cache) {
+            for (int i = 0; i < ChunkSnapshot.COLUMNS; i++) {
+                if (signatures[i] != cache.signatures[i]) {
+                    dirty.set(i);
+                    cache.signatures[i] = signatures[i];
                 }
             }
-            chunk.isGenerated = true;
-            chunk.needsUpdate = false;
-        } catch (IOException e) {
-            EbzTweaks.LOGGER.error("Error loading chunk " + pos, e);
         }
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        EbzTweaks.LOGGER.debug("Chunk {},{}: {} columnas cambiadas", pos.x, pos.z, dirty.cardinality());
+        scan(scanner.snapshot(levelChunk, dirty, MapLayer.SURFACE));
     }
 
-    private Path getChunkFile(ChunkPos pos) {
-        return saveDir.resolve(String.format("chunk_%d_%d.dat", pos.x, pos.z));
+    @Override
+    public void onChunkUnloaded(ChunkPos pos) {
+        for (LayerTiles tiles : layers.values()) {
+            tiles.columnCaches.remove(pos.toLong());
+        }
     }
 
-    private void saveChunkToDisk(ChunkPos pos, ChunkData chunk) {
-        Path chunkFile = getChunkFile(pos);
-        try (OutputStream os = Files.newOutputStream(chunkFile)) {
-            for (int x = 0; x < CHUNK_SIZE; x++) {
-                for (int z = 0; z < CHUNK_SIZE; z++) {
-                    writeInt(os, chunk.image.getPixelRGBA(x, z));
-                }
-            }
-        } catch (IOException e) {
-            EbzTweaks.LOGGER.error("Error saving chunk " + pos, e);
+    private void loadChunkFromDisk(LayerTiles tiles, ChunkPos pos, ChunkData chunk) {
+        MapTile tile = tiles.store.load(pos);
+        if (tile != null) {
+            writeColumns(tiles, pos, chunk, tile.colors, tile.hasHeights ? tile.heights : null);
         }
     }
 
-    private void updateRegionData(ChunkPos pos, ChunkData chunk) {
+    /**
+     * Region de la capa donde va el chunk. Al pasar de {@link #MAX_CACHED_REGIONS} se cierra la
+     * usada hace mas tiempo junto con sus chunks, que se vuelven a pedir si hacen falta.
+     */
+    private RegionData getRegionData(LayerTiles tiles, ChunkPos pos) {
         int regionX = Math.floorDiv(pos.x, REGION_SIZE);
         int regionZ = Math.floorDiv(pos.z, REGION_SIZE);
-        long regionKey = (((long)regionX) << 32) | (regionZ & 0xFFFFFFFFL);
-
-        RegionData region = loadedRegions.computeIfAbsent(regionKey, k -> new RegionData(regionX, regionZ));
+        RegionData region = tiles.loadedRegions.computeIfAbsent(ChunkPos.asLong(regionX, regionZ),
+                k -> new RegionData(tiles.texturePrefix, tiles.store.getSaveDir(), regionX, regionZ));
         region.lastAccess = System.currentTimeMillis();
         region.containedChunks.add(pos);
 
-        int relX = Math.floorMod(pos.x, REGION_SIZE) * CHUNK_SIZE;
-        int relZ = Math.floorMod(pos.z, REGION_SIZE) * CHUNK_SIZE;
-
-        for (int x = 0; x < CHUNK_SIZE; x++) {
-            for (int z = 0; z < CHUNK_SIZE; z++) {
-                region.image.setPixelRGBA(relX + x, relZ + z, chunk.image.getPixelRGBA(x, z));
-            }
+        if (tiles.loadedRegions.size() > MAX_CACHED_REGIONS) {
+            tiles.loadedRegions.values().stream()
+                    .filter(r -> r != region)
+                    .min(Comparator.comparingLong(r -> r.lastAccess))
+                    .ifPresent(oldest -> evictRegion(tiles, oldest));
         }
+        return region;
     }
 
-    private void loadGeneratedChunksIndex() {
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(saveDir, "chunk_*.dat")) {
-            for (Path file : stream) {
-                String fileName = file.getFileName().toString();
-                String[] parts = fileName.substring(6, fileName.length() - 4).split("_");
-                if (parts.length == 2) {
-                    try {
-                        int x = Integer.parseInt(parts[0]);
-                        int z = Integer.parseInt(parts[1]);
-                        generatedChunks.add(new ChunkPos(x, z));
-                    } catch (NumberFormatException e) {
-                        EbzTweaks.LOGGER.error("Invalid chunk filename: " + fileName);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            EbzTweaks.LOGGER.error("Error loading generated chunks index", e);
+    private void evictRegion(LayerTiles tiles, RegionData region) {
+        if (!tiles.loadedRegions.remove(ChunkPos.asLong(region.regionX, region.regionZ), region)) {
+            return;
         }
+        for (ChunkPos pos : region.containedChunks) {
+            tiles.loadedChunks.remove(pos.toLong());
+        }
+        region.close();
     }
 
-    private void writeInt(OutputStream os, int value) throws IOException {
-        os.write((value >> 24) & 0xFF);
-        os.write((value >> 16) & 0xFF);
-        os.write((value >> 8) & 0xFF);
-        os.write(value & 0xFF);
+    /**
+     * Textura de una region de la capa activa con los cambios ya subidos, o {@code null} si
+     * no hay ningun chunk suyo abierto. Cuenta como vista para {@link DiskQuota}. Hilo de render.
+     */
+    public ResourceLocation getRegionTexture(int regionX, int regionZ) {
+        RegionData region = active.loadedRegions.get(ChunkPos.asLong(regionX, regionZ));
+        if (region == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        region.lastAccess = now;
+        if (now - region.lastViewTouch >= VIEW_TOUCH_INTERVAL_MS) {
+            region.lastViewTouch = now;
+            DiskQuota.touch(region.file);
+        }
+        return region.texture.upload();
     }
 
-    private int readInt(InputStream is) throws IOException {
-        return (is.read() << 24) | (is.read() << 16) | (is.read() << 8) | is.read();
+    /**
+     * Tesela LOD de la capa activa ({@link LodPyramid#getTexture}). Hilo de render.
+     */
+    public ResourceLocation getLodTexture(int level, int tileX, int tileZ) {
+        return active.lod.getTexture(level, tileX, tileZ);
     }
 
-
-    private boolean isChunkNearby(ChunkPos pos) {
-        ChunkPos playerChunk = new ChunkPos(Minecraft.getInstance().player.blockPosition());
-        int dx = Math.abs(pos.x - playerChunk.x);
-        int dz = Math.abs(pos.z - playerChunk.z);
-        boolean isNearby = dx <= 8 && dz <= 8;
-        EbzTweaks.LOGGER.info("Chunk " + pos.x + "," + pos.z + " isNearby: " + isNearby +
-                " (dx=" + dx + ", dz=" + dz + ")");
-        return isNearby;
+    public long getAverageScanMicros() {
+        return scanner.getAverageScanMicros();
     }
 
-    public Set<ChunkPos> getGeneratedChunks() {
-        return Collections.unmodifiableSet(generatedChunks);
+    /**
+     * Chunks con tesela en las regiones de la capa activa consultadas hasta ahora.
+     */
+    public int getExploredCount() {
+        return active.store.getExploredCount();
     }
 
     public void cleanup() {
+        MapEvents.removeListener(this);
+        scheduler.clear();
+        viewRequests.clear();
         executor.shutdown();
         try {
             if (!executor.awaitTermination(2, TimeUnit.SECONDS)) {
@@ -367,14 +624,9 @@ public class MapChunkManager {
             Thread.currentThread().interrupt();
         }
 
-        for (ChunkData chunk : loadedChunks.values()) {
-            chunk.close();
-        }
-        loadedChunks.clear();
-
-        for (RegionData region : loadedRegions.values()) {
-            region.close();
+        for (LayerTiles tiles : layers.values()) {
+            tiles.close();
         }
-        loadedRegions.clear();
+        layers.clear();
     }
-}
\ No newline at end of file
+}
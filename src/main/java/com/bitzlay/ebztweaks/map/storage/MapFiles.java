@@ -0,0 +1,60 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lectura y escritura de ficheros enteros con cabecera (marca y version). No se proyectan en
+ * memoria: en Windows una proyeccion viva impide truncar o reemplazar el fichero hasta que la
+ * recoja el GC. Las escrituras van a un temporal que se mueve encima, asi que un fallo a
+ * medias deja el fichero anterior intacto.
+ */
+final class MapFiles {
+    static final int HEADER_BYTES = 8;
+
+    private MapFiles() {
+    }
+
+    /**
+     * El fichero entero en un buffer directo, con la posicion al principio.
+     */
+    static ByteBuffer read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Fichero demasiado grande: " + file);
+            }
+            ByteBuffer data = ByteBuffer.allocateDirect((int) size);
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    throw new IOException("Fichero truncado al leer: " + file);
+                }
+            }
+            return data.flip();
+        }
+    }
+
+    static void write(Path file, int magic, int version, byte[] body) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(magic).putInt(version);
+            header.flip();
+            // La cabecera va siempre, aunque el cuerpo este vacio
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer data = ByteBuffer.wrap(body);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
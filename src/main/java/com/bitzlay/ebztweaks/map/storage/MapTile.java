@@ -0,0 +1,22 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.map.core.BiomeTint;
+import com.bitzlay.ebztweaks.map.core.ChunkSnapshot;
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Datos de un chunk en una capa del mapa, columna a columna (indice z * 16 + x): el color
+ * final sin sombrear y las capas con las que se calculo, para poder rehacer el tinte, la
+ * profundidad y el relieve sin volver a escanear. Las firmas solo viven en memoria.
+ */
+class MapTile {
+    final int[] colors = new int[ChunkSnapshot.COLUMNS];
+    final int[] signatures = new int[ChunkSnapshot.COLUMNS];
+    final int[] baseColors = new int[ChunkSnapshot.COLUMNS];
+    final byte[] tints = new byte[ChunkSnapshot.COLUMNS];
+    final byte[] heights = new byte[ChunkSnapshot.COLUMNS];
+    final int[] floors = new int[ChunkSnapshot.COLUMNS];
+    final byte[] depths = new byte[ChunkSnapshot.COLUMNS];
+    final ResourceLocation[] biomeIds = new ResourceLocation[BiomeTint.SAMPLES];
+    boolean hasHeights;
+}
@@ -0,0 +1,68 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraftforge.fml.util.ObfuscationReflectionHelper;
+import org.lwjgl.system.MemoryUtil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Acceso en bloque a la memoria nativa de una {@link NativeImage} RGBA, sin pasar pixel a
+ * pixel por {@code getPixelRGBA}/{@code setPixelRGBA}.
+ * Los bytes van en el orden de la imagen (R, G, B, A). Si el puntero no es accesible
+ * {@link #isAvailable()} devuelve {@code false} y hay que usar el camino lento.
+ */
+public final class NativeImageAccess {
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final MethodHandle PIXELS;
+
+    static {
+        MethodHandle handle = null;
+        try {
+            Field field = ObfuscationReflectionHelper.findField(NativeImage.class, "f_84968_");
+            handle = MethodHandles.lookup().unreflectGetter(field);
+        } catch (Exception e) {
+            EbzTweaks.LOGGER.warn("Sin acceso a la memoria de NativeImage, se copiara pixel a pixel", e);
+        }
+        PIXELS = handle;
+    }
+
+    private NativeImageAccess() {
+    }
+
+    public static boolean isAvailable() {
+        return PIXELS != null;
+    }
+
+    /**
+     * Vista directa de la memoria de la imagen; solo es valida mientras la imagen siga abierta.
+     */
+    public static ByteBuffer view(NativeImage image) {
+        return MemoryUtil.memByteBuffer(pointer(image), (int) imageBytes(image));
+    }
+
+    private static long imageBytes(NativeImage image) {
+        return (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+    }
+
+    private static long pointer(NativeImage image) {
+        if (image.format() != NativeImage.Format.RGBA) {
+            throw new IllegalArgumentException("Solo imagenes RGBA");
+        }
+        try {
+            long pointer = (long) PIXELS.invokeExact(image);
+            if (pointer == 0L) {
+                throw new IllegalStateException("Imagen ya cerrada");
+            }
+            return pointer;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.world.level.ChunkPos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Contenedor de 32x32 chunks en un solo fichero. Los primeros sectores son una tabla con la
+ * posicion de cada chunk (sector inicial y numero de sectores); detras van los datos, cada
+ * uno precedido de su longitud. Cargar o guardar un chunk es una sola lectura o escritura
+ * posicionada: la tabla vive en memoria y se escribe al hacer {@link #flush()}.
+ */
+public class RegionFile implements Closeable {
+    public static final int REGION_SIZE = 32;
+    static final int SECTOR_SIZE = 1024;
+    private static final int ENTRIES = REGION_SIZE * REGION_SIZE;
+    private static final int HEADER_SECTORS = ENTRIES * 4 / SECTOR_SIZE;
+    private static final int MAX_SECTORS_PER_CHUNK = 0xFF;
+
+    private final Path file;
+    private final FileChannel channel;
+    // (sector inicial << 8) | numero de sectores; 0 si el chunk no esta
+    private final int[] offsets = new int[ENTRIES];
+    private final BitSet usedSectors = new BitSet();
+    // Sectores liberados que la tabla en disco aun puede apuntar: no se reutilizan hasta el flush
+    private final BitSet releasedSectors = new BitSet();
+    private boolean headerDirty;
+
+    public RegionFile(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        usedSectors.set(0, HEADER_SECTORS);
+        readHeader();
+    }
+
+    public static String getFileName(int regionX, int regionZ) {
+        return String.format("r.%d.%d.ebz", regionX, regionZ);
+    }
+
+    /**
+     * Indice del chunk dentro de su region (z * 32 + x).
+     */
+    public static int getIndex(ChunkPos pos) {
+        return Math.floorMod(pos.z, REGION_SIZE) * REGION_SIZE + Math.floorMod(pos.x, REGION_SIZE);
+    }
+
+    /**
+     * Chunks presentes segun la tabla guardada en disco, sin abrir la region entera: una
+     * sola lectura de la cabecera. Un bit por indice de {@link #getIndex}, en 16 longs.
+     */
+    public static long[] readPresentChunks(Path file) throws IOException {
+        long[] present = new long[ENTRIES / 64];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            for (int i = 0; i < ENTRIES && header.remaining() >= 4; i++) {
+                if (header.getInt() != 0) {
+                    present[i >> 6] |= 1L << i;
+                }
+            }
+        }
+        return present;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized boolean hasChunk(int index) {
+        return offsets[index] != 0;
+    }
+
+    /**
+     * Chunks presentes, un bit por indice de {@link #getIndex}.
+     */
+    public synchronized BitSet getPresentChunks() {
+        BitSet present = new BitSet(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            if (offsets[i] != 0) {
+                present.set(i);
+            }
+        }
+        return present;
+    }
+
+    /**
+     * Lee los datos del chunk, o {@code null} si no esta en la region.
+     */
+    public synchronized byte[] read(int index) throws IOException {
+        int entry = offsets[index];
+        if (entry == 0) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((entry & 0xFF) * SECTOR_SIZE);
+        long position = (long) (entry >>> 8) * SECTOR_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+
+        int length = buffer.remaining() >= 4 ? buffer.getInt() : -1;
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Chunk " + index + " truncado en " + file.getFileName());
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Escribe los datos del chunk. Si caben en sus sectores se sobrescriben en el sitio;
+     * si no, se busca el primer hueco libre donde quepan.
+     */
+    public synchronized void write(int index, byte[] data, int length) throws IOException {
+        int sectors = (length + 4 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        if (sectors > MAX_SECTORS_PER_CHUNK) {
+            throw new IOException("Chunk " + index + " demasiado grande: " + length + " bytes");
+        }
+
+        int entry = offsets[index];
+        int start = entry >>> 8;
+        int count = entry & 0xFF;
+        if (entry == 0 || sectors > count) {
+            if (entry != 0) {
+                release(start, count);
+            }
+            start = allocate(sectors);
+            usedSectors.set(start, start + sectors);
+        } else if (sectors < count) {
+            release(start + sectors, count - sectors);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).put(data, 0, length).flip();
+        long position = (long) start * SECTOR_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+
+        int updated = (start << 8) | sectors;
+        if (updated != entry) {
+            offsets[index] = updated;
+            headerDirty = true;
+        }
+    }
+
+    /**
+     * Escribe la tabla si cambio y libera los sectores que ya nadie apunta.
+     */
+    public synchronized void flush() throws IOException {
+        if (!headerDirty) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+        header.asIntBuffer().put(offsets);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        headerDirty = false;
+
+        usedSectors.andNot(releasedSectors);
+        releasedSectors.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void readHeader() throws IOException {
+        long fileSectors = (channel.size() + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        if (fileSectors < HEADER_SECTORS) {
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        header.flip();
+
+        for (int i = 0; i < ENTRIES; i++) {
+            int entry = header.getInt();
+            int start = entry >>> 8;
+            int count = entry & 0xFF;
+            if (entry == 0) {
+                continue;
+            }
+            if (count == 0 || start < HEADER_SECTORS || start + count > fileSectors) {
+                EbzTweaks.LOGGER.warn("Entrada " + i + " invalida en " + file.getFileName() + ", se descarta");
+                headerDirty = true;
+                continue;
+            }
+            offsets[i] = entry;
+            usedSectors.set(start, start + count);
+        }
+    }
+
+    private void release(int start, int count) {
+        releasedSectors.set(start, start + count);
+    }
+
+    private int allocate(int sectors) {
+        int start = usedSectors.nextClearBit(HEADER_SECTORS);
+        while (true) {
+            int end = usedSectors.nextSetBit(start);
+            if (end < 0 || end - start >= sectors) {
+                return start;
+            }
+            start = usedSectors.nextClearBit(end);
+        }
+    }
+}
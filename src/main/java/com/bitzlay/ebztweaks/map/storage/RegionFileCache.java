@@ -0,0 +1,140 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.world.level.ChunkPos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Regiones abiertas de un directorio. Se mantienen como mucho {@link #MAX_OPEN_REGIONS}
+ * ficheros abiertos; al pasarse se cierra el usado hace mas tiempo. Hay una sola cache por
+ * directorio ({@link #forDir}) para que el mapa y la migracion no abran el mismo fichero
+ * con dos tablas distintas; cerrarla solo cierra los ficheros, que se reabren al usarla.
+ */
+public class RegionFileCache {
+    private static final int MAX_OPEN_REGIONS = 32;
+    private static final Map<Path, RegionFileCache> CACHES = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final Map<Long, RegionFile> regions = new LinkedHashMap<>(16, 0.75f, true);
+
+    private RegionFileCache(Path dir) {
+        this.dir = dir;
+    }
+
+    public static RegionFileCache forDir(Path dir) {
+        Path key = dir.toAbsolutePath().normalize();
+        return CACHES.computeIfAbsent(key, RegionFileCache::new);
+    }
+
+    /**
+     * Escribe las cabeceras pendientes de todas las caches. Devuelve si se escribieron todas.
+     */
+    public static boolean flushAll() {
+        boolean flushed = true;
+        for (RegionFileCache cache : CACHES.values()) {
+            flushed &= cache.flush();
+        }
+        return flushed;
+    }
+
+    /**
+     * Borra un fichero de region, cerrandolo antes si esta abierto en su cache, y lo quita
+     * del indice de explorados. Devuelve si se borro.
+     */
+    public static boolean delete(Path file, int regionX, int regionZ) throws IOException {
+        ExploredIndex.forDir(file.getParent()).forget(regionX, regionZ);
+        RegionFileCache cache = CACHES.get(file.getParent().toAbsolutePath().normalize());
+        if (cache == null) {
+            return Files.deleteIfExists(file);
+        }
+        // Bajo el cerrojo para que nadie lo reabra entre el cierre y el borrado
+        synchronized (cache) {
+            RegionFile region = cache.regions.remove(ChunkPos.asLong(regionX, regionZ));
+            if (region != null) {
+                cache.closeQuietly(region);
+            }
+            return Files.deleteIfExists(file);
+        }
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    // Bajo el cerrojo de la cache para que ninguna region se cierre a mitad de una lectura
+    public synchronized byte[] read(ChunkPos pos) throws IOException {
+        RegionFile region = getRegion(pos, false);
+        if (region == null) {
+            return null;
+        }
+        return region.read(RegionFile.getIndex(pos));
+    }
+
+    public synchronized void write(ChunkPos pos, byte[] data, int length) throws IOException {
+        RegionFile region = getRegion(pos, true);
+        region.write(RegionFile.getIndex(pos), data, length);
+    }
+
+    /**
+     * Escribe las cabeceras pendientes. Devuelve si se escribieron todas.
+     */
+    public synchronized boolean flush() {
+        boolean flushed = true;
+        for (RegionFile region : regions.values()) {
+            try {
+                region.flush();
+            } catch (IOException e) {
+                EbzTweaks.LOGGER.error("Error guardando cabecera de " + region.getFile(), e);
+                flushed = false;
+            }
+        }
+        return flushed;
+    }
+
+    public synchronized void close() {
+        for (RegionFile region : regions.values()) {
+            closeQuietly(region);
+        }
+        regions.clear();
+    }
+
+    private RegionFile getRegion(ChunkPos pos, boolean create) throws IOException {
+        return getRegion(Math.floorDiv(pos.x, RegionFile.REGION_SIZE), Math.floorDiv(pos.z, RegionFile.REGION_SIZE), create);
+    }
+
+    private synchronized RegionFile getRegion(int regionX, int regionZ, boolean create) throws IOException {
+        long key = ChunkPos.asLong(regionX, regionZ);
+        RegionFile region = regions.get(key);
+        if (region != null) {
+            return region;
+        }
+
+        Path file = dir.resolve(RegionFile.getFileName(regionX, regionZ));
+        if (!create && !Files.exists(file)) {
+            return null;
+        }
+        if (regions.size() >= MAX_OPEN_REGIONS) {
+            Iterator<RegionFile> eldest = regions.values().iterator();
+            closeQuietly(eldest.next());
+            eldest.remove();
+        }
+        region = new RegionFile(file);
+        regions.put(key, region);
+        return region;
+    }
+
+    private void closeQuietly(RegionFile region) {
+        try {
+            region.close();
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error cerrando " + region.getFile(), e);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.texture.DynamicTexture;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Textura de 512x512 con los 32x32 chunks de una region, cada uno en
+ * ({@link #getOffsetX}, {@link #getOffsetZ}), o con una tesela de {@link LodPyramid}. Se
+ * escribe en la imagen desde cualquier hilo y la subida se hace en el hilo de render con
+ * {@link #upload()}, una vez por textura y no por chunk. Lo que aun no se ha escrito es
+ * transparente; la textura de GPU no se crea hasta que se dibuja por primera vez.
+ */
+public class RegionTexture {
+    public static final int CHUNKS = 32;
+    public static final int CHUNK_SIZE = 16;
+    public static final int SIZE = CHUNKS * CHUNK_SIZE;
+    // Con mas rectangulos sucios se sube su envolvente
+    private static final int MAX_DIRTY_RECTS = 16;
+
+    private final NativeImage image;
+    private final ResourceLocation location;
+    // Solo se toca en el hilo de render (y al cerrar, que tambien va a el)
+    private DynamicTexture texture;
+    private volatile boolean needsUpload;
+    // Rectangulos por subir, {x, z, ancho, alto}; bajo el cerrojo
+    private final List<int[]> dirtyRects = new ArrayList<>();
+    // Cerrada: las escrituras que lleguen tarde se descartan
+    private boolean closed;
+
+    public RegionTexture(String name) {
+        // calloc: empieza transparente
+        this.image = new NativeImage(NativeImage.Format.RGBA, SIZE, SIZE, true);
+        this.location = new ResourceLocation("ebztweaks", name);
+    }
+
+    public static int getOffsetX(ChunkPos pos) {
+        return Math.floorMod(pos.x, CHUNKS) * CHUNK_SIZE;
+    }
+
+    public static int getOffsetZ(ChunkPos pos) {
+        return Math.floorMod(pos.z, CHUNKS) * CHUNK_SIZE;
+    }
+
+    public ResourceLocation getLocation() {
+        return location;
+    }
+
+    /**
+     * Escribe un rectangulo (inclusivo) de los pixeles de un chunk, indice z * 16 + x.
+     */
+    public synchronized void write(ChunkPos pos, int[] pixels, int fromX, int toX, int fromZ, int toZ) {
+        if (closed) {
+            return;
+        }
+        int baseX = getOffsetX(pos);
+        int baseZ = getOffsetZ(pos);
+        for (int z = fromZ; z <= toZ; z++) {
+            for (int x = fromX; x <= toX; x++) {
+                image.setPixelRGBA(baseX + x, baseZ + z, pixels[z * CHUNK_SIZE + x]);
+            }
+        }
+        markDirty(baseX + fromX, baseZ + fromZ, toX - fromX + 1, toZ - fromZ + 1);
+    }
+
+    /**
+     * Copia un rectangulo de la imagen (fila a fila, {@code width} por fila), o {@code null}
+     * si ya esta cerrada.
+     */
+    synchronized int[] read(int x, int z, int width, int height) {
+        if (closed) {
+            return null;
+        }
+        int[] pixels = new int[width * height];
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                pixels[row * width + column] = image.getPixelRGBA(x + column, z + row);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Escribe un rectangulo y devuelve si cambio algun pixel; si no, no hay nada que subir.
+     */
+    synchronized boolean update(int x, int z, int width, int height, int[] pixels) {
+        if (closed) {
+            return false;
+        }
+        boolean changed = false;
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                int color = pixels[row * width + column];
+                if (image.getPixelRGBA(x + column, z + row) != color) {
+                    image.setPixelRGBA(x + column, z + row, color);
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            markDirty(x, z, width, height);
+        }
+        return changed;
+    }
+
+    /**
+     * La imagen entera con {@link TileCodec}, o {@code null} si ya esta cerrada.
+     */
+    synchronized byte[] encode() {
+        if (closed) {
+            return null;
+        }
+        if (NativeImageAccess.isAvailable()) {
+            return TileCodec.encode(NativeImageAccess.view(image).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), SIZE * SIZE, null);
+        }
+        return TileCodec.encode(read(0, 0, SIZE, SIZE), null);
+    }
+
+    synchronized void decode(ByteBuffer data) throws IOException {
+        if (closed) {
+            return;
+        }
+        TileCodec.decode(data, image, null);
+        markDirty(0, 0, SIZE, SIZE);
+    }
+
+    /**
+     * Anade un rectangulo a subir. Los que se solapan o tocan con uno pendiente se juntan
+     * con el; si aun asi hay demasiados, se sube la envolvente de todos.
+     */
+    private void markDirty(int x, int z, int width, int height) {
+        int[] rect = {x, z, width, height};
+        for (int i = dirtyRects.size() - 1; i >= 0; i--) {
+            int[] other = dirtyRects.get(i);
+            if (touches(rect, other)) {
+                rect = union(rect, other);
+                dirtyRects.remove(i);
+            }
+        }
+        dirtyRects.add(rect);
+        if (dirtyRects.size() > MAX_DIRTY_RECTS) {
+            int[] bounds = dirtyRects.get(0);
+            for (int[] other : dirtyRects) {
+                bounds = union(bounds, other);
+            }
+            dirtyRects.clear();
+            dirtyRects.add(bounds);
+        }
+        needsUpload = true;
+    }
+
+    private static boolean touches(int[] a, int[] b) {
+        return a[0] <= b[0] + b[2] && b[0] <= a[0] + a[2] && a[1] <= b[1] + b[3] && b[1] <= a[1] + a[3];
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int x = Math.min(a[0], b[0]);
+        int z = Math.min(a[1], b[1]);
+        return new int[]{x, z, Math.max(a[0] + a[2], b[0] + b[2]) - x, Math.max(a[1] + a[3], b[1] + b[3]) - z};
+    }
+
+    /**
+     * Sube los cambios pendientes, creando la textura la primera vez. Hilo de render. Solo
+     * se suben los rectangulos que cambiaron: un bloque son unos bytes y no la region entera.
+     */
+    public ResourceLocation upload() {
+        if (texture == null) {
+            synchronized (this) {
+                if (closed) {
+                    return null;
+                }
+                needsUpload = false;
+                dirtyRects.clear();
+                // El constructor ya sube la imagen
+                texture = new DynamicTexture(image);
+                Minecraft.getInstance().getTextureManager().register(location, texture);
+            }
+        } else if (needsUpload) {
+            synchronized (this) {
+                needsUpload = false;
+                if (!closed) {
+                    texture.bind();
+                    for (int[] rect : dirtyRects) {
+                        image.upload(0, rect[0], rect[1], rect[0], rect[1], rect[2], rect[3], false, false);
+                    }
+                }
+                dirtyRects.clear();
+            }
+        }
+        return location;
+    }
+
+    public void close() {
+        Minecraft.getInstance().execute(() -> {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (texture != null) {
+                    // La textura es duena de la imagen
+                    texture.close();
+                    Minecraft.getInstance().getTextureManager().release(location);
+                    texture = null;
+                } else {
+                    image.close();
+                }
+            }
+        });
+    }
+}
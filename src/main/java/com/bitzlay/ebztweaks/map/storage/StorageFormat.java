@@ -0,0 +1,87 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import net.minecraft.world.level.ChunkPos;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Cabecera versionada de un directorio de mapa ({@code format.dat}): dice en que formato
+ * esta todo lo que cuelga de el. Sin cabecera se asume {@link #LEGACY}.
+ */
+public final class StorageFormat {
+    /**
+     * Un fichero por chunk ({@code chunk_x_z.dat}, crudo o gzip) y regiones {@code r.x.z.map} sin cabecera.
+     */
+    public static final int LEGACY = 0;
+    /**
+     * Regiones {@link RegionFile} con las teselas de {@link TileStore}. En {@code EbzWorldMap}
+     * quiere decir que sus chunks ya se pasaron a {@code ebztweaks/worldmap}.
+     */
+    public static final int CURRENT = 1;
+
+    private static final String FILE_NAME = "format.dat";
+    private static final int MAGIC = 0x45425A46;
+
+    private StorageFormat() {
+    }
+
+    /**
+     * Posicion de un fichero {@code chunk_x_z.dat} del formato anterior, o {@code null}.
+     */
+    static ChunkPos parseLegacyChunkName(String fileName) {
+        if (!fileName.startsWith("chunk_") || !fileName.endsWith(".dat")) {
+            return null;
+        }
+        String[] parts = fileName.substring(6, fileName.length() - 4).split("_");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return new ChunkPos(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        } catch (NumberFormatException e) {
+            EbzTweaks.LOGGER.error("Invalid chunk filename: " + fileName);
+            return null;
+        }
+    }
+
+    public static int read(Path root) {
+        Path file = root.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return LEGACY;
+        }
+        try (DataInputStream is = new DataInputStream(Files.newInputStream(file))) {
+            if (is.readInt() != MAGIC) {
+                EbzTweaks.LOGGER.warn("Cabecera de mapa invalida en " + file);
+                return LEGACY;
+            }
+            return is.readInt();
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error leyendo " + file, e);
+            return LEGACY;
+        }
+    }
+
+    /**
+     * Escribe la version a un temporal y lo mueve encima, para no dejar nunca una cabecera a medias.
+     */
+    public static void write(Path root, int version) {
+        Path file = root.resolve(FILE_NAME);
+        Path temp = root.resolve(FILE_NAME + ".tmp");
+        try {
+            Files.createDirectories(root);
+            try (DataOutputStream os = new DataOutputStream(Files.newOutputStream(temp))) {
+                os.writeInt(MAGIC);
+                os.writeInt(version);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error escribiendo " + file, e);
+        }
+    }
+}
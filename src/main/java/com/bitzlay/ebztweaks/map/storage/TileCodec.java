@@ -0,0 +1,220 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codificacion compacta de pixeles de mapa: paleta con los colores distintos, indices
+ * empaquetados con los bits justos, un plano opcional de un byte por pixel (alturas,
+ * tintes) y deflate rapido encima. Los pixeles son los enteros de {@code getPixelRGBA},
+ * fila a fila.
+ *
+ * <p>Formato antes de comprimir: version, flags, numero de pixeles, paleta, bits por indice,
+ * los indices en longs (sin partir un indice entre dos longs) y el plano si lo hay. Delante
+ * de lo comprimido va la longitud sin comprimir.
+ */
+public final class TileCodec {
+    private static final byte VERSION = 1;
+    private static final byte FLAG_PLANE = 1;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private TileCodec() {
+    }
+
+    public static byte[] encode(int[] pixels, byte[] plane) {
+        return encode(IntBuffer.wrap(pixels), pixels.length, plane);
+    }
+
+    /**
+     * Codifica {@code count} pixeles desde la posicion actual de {@code pixels}, que puede
+     * ser la memoria de una imagen. {@code plane} puede ser {@code null}.
+     */
+    public static byte[] encode(IntBuffer pixels, int count, byte[] plane) {
+        Int2IntOpenHashMap lookup = new Int2IntOpenHashMap();
+        lookup.defaultReturnValue(-1);
+        IntArrayList palette = new IntArrayList();
+        int[] indices = new int[count];
+        int start = pixels.position();
+        int previous = 0;
+        int previousIndex = -1;
+        for (int i = 0; i < count; i++) {
+            int color = pixels.get(start + i);
+            // Los pixeles vecinos suelen repetirse: nos ahorramos el hash
+            if (color != previous || previousIndex < 0) {
+                previousIndex = lookup.get(color);
+                if (previousIndex < 0) {
+                    previousIndex = palette.size();
+                    lookup.put(color, previousIndex);
+                    palette.add(color);
+                }
+                previous = color;
+            }
+            indices[i] = previousIndex;
+        }
+
+        int bits = bitsFor(palette.size());
+        int words = packedWords(count, bits);
+        int rawLength = 2 + 4 + 4 + palette.size() * 4 + 1 + words * 8 + (plane != null ? count : 0);
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        raw.put(VERSION).put(plane != null ? FLAG_PLANE : 0).putInt(count).putInt(palette.size());
+        for (int i = 0; i < palette.size(); i++) {
+            raw.putInt(palette.getInt(i));
+        }
+        raw.put((byte) bits);
+        if (bits > 0) {
+            int perWord = 64 / bits;
+            for (int w = 0; w < words; w++) {
+                long word = 0;
+                int base = w * perWord;
+                int end = Math.min(count, base + perWord);
+                for (int i = base; i < end; i++) {
+                    word |= (long) indices[i] << ((i - base) * bits);
+                }
+                raw.putLong(word);
+            }
+        }
+        if (plane != null) {
+            raw.put(plane, 0, count);
+        }
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, rawLength);
+        deflater.finish();
+        ByteBuffer out = ByteBuffer.allocate(4 + rawLength + rawLength / 1000 + 64);
+        out.putInt(rawLength);
+        while (!deflater.finished()) {
+            if (!out.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(out.capacity() * 2);
+                out.flip();
+                out = grown.put(out);
+            }
+            int written = deflater.deflate(out.array(), out.position(), out.remaining());
+            out.position(out.position() + written);
+        }
+
+        byte[] encoded = new byte[out.position()];
+        System.arraycopy(out.array(), 0, encoded, 0, encoded.length);
+        return encoded;
+    }
+
+    /**
+     * Decodifica en {@code pixels} (desde su posicion actual) y, si el bloque tiene plano y
+     * {@code plane} no es {@code null}, tambien en {@code plane}. Devuelve si habia plano.
+     */
+    public static boolean decode(ByteBuffer data, IntBuffer pixels, byte[] plane) throws IOException {
+        ByteBuffer raw = inflate(data);
+        if (raw.get() != VERSION) {
+            throw new IOException("Version de tesela desconocida");
+        }
+        boolean hasPlane = (raw.get() & FLAG_PLANE) != 0;
+        int count = raw.getInt();
+        if (count > pixels.remaining()) {
+            throw new IOException("Tesela de " + count + " pixeles en un destino de " + pixels.remaining());
+        }
+
+        int[] palette = new int[raw.getInt()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = raw.getInt();
+        }
+        int bits = raw.get();
+        int start = pixels.position();
+        if (bits == 0) {
+            int color = palette.length > 0 ? palette[0] : 0;
+            for (int i = 0; i < count; i++) {
+                pixels.put(start + i, color);
+            }
+        } else {
+            int perWord = 64 / bits;
+            long mask = (1L << bits) - 1;
+            int words = packedWords(count, bits);
+            for (int w = 0; w < words; w++) {
+                long word = raw.getLong();
+                int base = w * perWord;
+                int end = Math.min(count, base + perWord);
+                for (int i = base; i < end; i++) {
+                    int index = (int) (word & mask);
+                    if (index >= palette.length) {
+                        throw new IOException("Indice de paleta fuera de rango");
+                    }
+                    pixels.put(start + i, palette[index]);
+                    word >>>= bits;
+                }
+            }
+        }
+
+        if (hasPlane && plane != null) {
+            raw.get(plane, 0, Math.min(count, plane.length));
+        }
+        return hasPlane;
+    }
+
+    public static boolean decode(byte[] data, int[] pixels, byte[] plane) throws IOException {
+        return decode(ByteBuffer.wrap(data), IntBuffer.wrap(pixels), plane);
+    }
+
+    /**
+     * Decodifica directamente en la memoria de la imagen, que debe tener tantos pixeles como
+     * la tesela; sin acceso a la memoria pasa por un array intermedio.
+     */
+    public static boolean decode(ByteBuffer data, NativeImage image, byte[] plane) throws IOException {
+        if (NativeImageAccess.isAvailable()) {
+            return decode(data, NativeImageAccess.view(image).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), plane);
+        }
+        int[] pixels = new int[image.getWidth() * image.getHeight()];
+        boolean hasPlane = decode(data, IntBuffer.wrap(pixels), plane);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setPixelRGBA(x, y, pixels[y * image.getWidth() + x]);
+            }
+        }
+        return hasPlane;
+    }
+
+    private static ByteBuffer inflate(ByteBuffer data) throws IOException {
+        int rawLength = data.getInt();
+        if (rawLength < 0) {
+            throw new IOException("Longitud de tesela invalida: " + rawLength);
+        }
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            int read = 0;
+            while (read < rawLength) {
+                int n = inflater.inflate(raw, read, rawLength - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Tesela truncada");
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Tesela corrupta", e);
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    private static int bitsFor(int paletteSize) {
+        return paletteSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+    }
+
+    private static int packedWords(int count, int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        int perWord = 64 / bits;
+        return (count + perWord - 1) / perWord;
+    }
+}
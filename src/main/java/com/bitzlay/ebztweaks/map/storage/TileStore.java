@@ -0,0 +1,331 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+import com.bitzlay.ebztweaks.map.core.BiomeTint;
+import com.bitzlay.ebztweaks.map.core.ChunkSnapshot;
+import com.bitzlay.ebztweaks.map.core.DepthCompositor;
+import net.minecraft.core.Registry;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.biome.Biome;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Teselas de una capa del mapa en disco, agrupadas en ficheros de region ({@link RegionFile})
+ * y codificadas con paleta ({@link TileCodec}) junto a las capas de {@link MapTile}.
+ */
+public class TileStore {
+    private static final int CHUNK_SIZE = 16;
+    // Marcas de los bloques opcionales que siguen a los colores de la tesela
+    private static final int TINT_SECTION_MAGIC = 0x54494E54;
+    private static final int HEIGHT_SECTION_MAGIC = 0x48474854;
+    private static final int DEPTH_SECTION_MAGIC = 0x44505448;
+    // Primeros bytes de las teselas con paleta; las anteriores empiezan directamente por un color
+    private static final int PALETTE_FORMAT_MAGIC = 0x50414C54;
+
+    private final Path saveDir;
+    private final Registry<Biome> biomes;
+    private final RegionFileCache regions;
+    private final WriteBehindQueue writes;
+    private final ExploredIndex explored;
+    // Chunks que siguen en ficheros sueltos del formato anterior mientras no termine la migracion
+    private final Set<ChunkPos> legacyChunks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param legacy si el directorio puede tener aun ficheros por chunk sin migrar
+     */
+    public TileStore(Path saveDir, Registry<Biome> biomes, boolean legacy) {
+        this.saveDir = saveDir;
+        this.biomes = biomes;
+        this.regions = RegionFileCache.forDir(saveDir);
+        this.writes = new WriteBehindQueue("tesela", regions::flush);
+        this.explored = ExploredIndex.forDir(saveDir);
+
+        try {
+            Files.createDirectories(saveDir);
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error creating save directory", e);
+        }
+        if (legacy) {
+            CompletableFuture.runAsync(this::indexLegacyChunks);
+        }
+    }
+
+    public Path getSaveDir() {
+        return saveDir;
+    }
+
+    /**
+     * Si hay tesela guardada del chunk. Puede leer la cabecera de su region: no en el hilo del cliente.
+     */
+    public boolean contains(ChunkPos pos) {
+        return explored.contains(pos) || legacyChunks.contains(pos);
+    }
+
+    public int getExploredCount() {
+        return explored.countLoaded() + legacyChunks.size();
+    }
+
+    /**
+     * Lee la tesela y recalcula el tinte y la profundidad con los ajustes actuales.
+     * Devuelve {@code null} si no existe o no se pudo leer.
+     */
+    MapTile load(ChunkPos pos) {
+        // Si aun esta en la cola se escribe antes para no leer una version vieja
+        writes.flush(pos);
+        try {
+            byte[] data = regions.read(pos);
+            if (data != null) {
+                return decode(pos, new DataInputStream(new ByteArrayInputStream(data)));
+            }
+
+            // Teselas de antes de las regiones: se leen de su fichero hasta que se vuelvan a guardar
+            Path chunkFile = getLegacyChunkFile(pos);
+            if (!legacyChunks.contains(pos) || !Files.exists(chunkFile)) return null;
+            try (DataInputStream is = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(chunkFile)))) {
+                return decode(pos, is);
+            }
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error loading chunk " + pos, e);
+            return null;
+        }
+    }
+
+    /**
+     * Programa el guardado de la tesela. Se codifica al escribirla, asi que varios cambios
+     * seguidos del mismo chunk acaban en una sola escritura con el ultimo estado.
+     */
+    void save(ChunkPos pos, MapTile tile) {
+        explored.mark(pos);
+        writes.submit(pos, () -> write(pos, tile));
+    }
+
+    private void write(ChunkPos pos, MapTile tile) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+            synchronized (tile) {
+                encode(tile, new DataOutputStream(buffer));
+            }
+            regions.write(pos, buffer.toByteArray(), buffer.size());
+
+            if (legacyChunks.remove(pos)) {
+                Files.deleteIfExists(getLegacyChunkFile(pos));
+            }
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error saving chunk " + pos, e);
+        }
+    }
+
+    /**
+     * Escribe las teselas pendientes y las cabeceras de region.
+     */
+    public void flush() {
+        writes.flush();
+    }
+
+    public void close() {
+        writes.close();
+        regions.close();
+    }
+
+    private MapTile decode(ChunkPos pos, DataInputStream is) throws IOException {
+        MapTile tile = parse(is);
+        recompute(pos, tile);
+        return tile;
+    }
+
+    /**
+     * Lee la tesela tal como se guardo, en el formato con paleta o en el anterior, sin
+     * recalcular nada. En el anterior los bloques opcionales pueden faltar: sin capas
+     * se quedan a cero y los colores se usan tal cual.
+     */
+    private static MapTile parse(DataInputStream is) throws IOException {
+        MapTile tile = new MapTile();
+        is.mark(4);
+        if (is.readInt() == PALETTE_FORMAT_MAGIC) {
+            tile.hasHeights = decodeBlock(is, tile.colors, tile.heights);
+            decodeBlock(is, tile.baseColors, tile.tints);
+            for (int q = 0; q < BiomeTint.SAMPLES; q++) {
+                tile.biomeIds[q] = is.readBoolean() ? new ResourceLocation(is.readUTF()) : null;
+            }
+            readDepth(is, tile);
+            return tile;
+        }
+        is.reset();
+
+        // Formato anterior: colores en enteros sueltos y bloques opcionales detras
+        for (int x = 0; x < CHUNK_SIZE; x++) {
+            for (int z = 0; z < CHUNK_SIZE; z++) {
+                tile.colors[z * CHUNK_SIZE + x] = readInt(is);
+            }
+        }
+        while (is.available() >= 4) {
+            int magic = is.readInt();
+            if (magic == TINT_SECTION_MAGIC) {
+                readTint(is, tile);
+            } else if (magic == DEPTH_SECTION_MAGIC) {
+                readDepth(is, tile);
+            } else if (magic == HEIGHT_SECTION_MAGIC) {
+                is.readFully(tile.heights);
+                tile.hasHeights = true;
+            } else {
+                break;
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Colores con sus alturas y colores base con sus tintes, cada uno con {@link TileCodec};
+     * detras los biomos y las columnas con capa.
+     */
+    private static void encode(MapTile tile, DataOutputStream os) throws IOException {
+        os.writeInt(PALETTE_FORMAT_MAGIC);
+        encodeBlock(os, TileCodec.encode(tile.colors, tile.hasHeights ? tile.heights : null));
+        encodeBlock(os, TileCodec.encode(tile.baseColors, tile.tints));
+        for (ResourceLocation biome : tile.biomeIds) {
+            os.writeBoolean(biome != null);
+            if (biome != null) {
+                os.writeUTF(biome.toString());
+            }
+        }
+
+        // Solo las columnas con capa: indice, profundidad y color del fondo
+        int layered = 0;
+        for (byte depth : tile.depths) {
+            if (depth != DepthCompositor.NO_LAYER) {
+                layered++;
+            }
+        }
+        os.writeShort(layered);
+        for (int i = 0; i < ChunkSnapshot.COLUMNS; i++) {
+            if (tile.depths[i] != DepthCompositor.NO_LAYER) {
+                os.writeByte(i);
+                os.writeByte(tile.depths[i]);
+                os.writeInt(tile.floors[i]);
+            }
+        }
+
+        os.flush();
+    }
+
+    private static void encodeBlock(DataOutputStream os, byte[] block) throws IOException {
+        os.writeInt(block.length);
+        os.write(block);
+    }
+
+    private static boolean decodeBlock(DataInputStream is, int[] pixels, byte[] plane) throws IOException {
+        byte[] block = new byte[is.readInt()];
+        is.readFully(block);
+        return TileCodec.decode(block, pixels, plane);
+    }
+
+    private static void readTint(DataInputStream is, MapTile tile) throws IOException {
+        for (int q = 0; q < BiomeTint.SAMPLES; q++) {
+            tile.biomeIds[q] = is.readBoolean() ? new ResourceLocation(is.readUTF()) : null;
+        }
+        is.readFully(tile.tints);
+        for (int i = 0; i < ChunkSnapshot.COLUMNS; i++) {
+            tile.baseColors[i] = is.readInt();
+        }
+    }
+
+    private static void readDepth(DataInputStream is, MapTile tile) throws IOException {
+        int count = is.readUnsignedShort();
+        for (int n = 0; n < count; n++) {
+            int i = is.readUnsignedByte();
+            tile.depths[i] = is.readByte();
+            tile.floors[i] = is.readInt();
+        }
+    }
+
+    /**
+     * Rehace el tinte de bioma y la composicion de profundidad a partir de los colores
+     * base guardados, sin volver a leer bloques del mundo.
+     */
+    private void recompute(ChunkPos pos, MapTile tile) {
+        Biome[] sampled = new Biome[BiomeTint.SAMPLES];
+        for (int q = 0; q < BiomeTint.SAMPLES; q++) {
+            sampled[q] = tile.biomeIds[q] != null ? biomes.get(tile.biomeIds[q]) : null;
+        }
+
+        int[] layered = tile.baseColors.clone();
+        BiomeTint.apply(pos, layered, tile.tints, sampled);
+        DepthCompositor.composite(layered, tile.tints, tile.floors, tile.depths);
+
+        for (int i = 0; i < ChunkSnapshot.COLUMNS; i++) {
+            boolean layer = tile.depths[i] != DepthCompositor.NO_LAYER;
+            if ((tile.tints[i] != BiomeTint.NONE || layer) && tile.baseColors[i] != 0) {
+                tile.colors[i] = layered[i];
+            }
+        }
+    }
+
+    private Path getLegacyChunkFile(ChunkPos pos) {
+        return saveDir.resolve(String.format("chunk_%d_%d.dat", pos.x, pos.z));
+    }
+
+    private void indexLegacyChunks() {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(saveDir, "chunk_*.dat")) {
+            for (Path file : stream) {
+                ChunkPos pos = StorageFormat.parseLegacyChunkName(file.getFileName().toString());
+                if (pos != null) {
+                    legacyChunks.add(pos);
+                }
+            }
+        } catch (IOException e) {
+            EbzTweaks.LOGGER.error("Error indexing legacy chunk files", e);
+        }
+    }
+
+    /**
+     * Pasa un fichero suelto del formato anterior a la region de su directorio. Si la region
+     * ya tiene ese chunk gana la region, que es mas reciente. El fichero no se borra aqui: la
+     * tesela no esta a salvo hasta que se escriba la cabecera de la region. Devuelve
+     * {@code false} si el nombre no es de un chunk y el fichero hay que dejarlo.
+     */
+    static boolean migrateLegacyFile(Path dir, Path file) throws IOException {
+        ChunkPos pos = StorageFormat.parseLegacyChunkName(file.getFileName().toString());
+        if (pos == null) {
+            return false;
+        }
+        if (!ExploredIndex.forDir(dir).contains(pos)) {
+            try (DataInputStream is = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+                writeMigrated(dir, pos, parse(is));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Guarda en la region de {@code dir} una tesela con solo colores, para los formatos que
+     * solo guardaban la imagen del mapa. Si la region ya tiene ese chunk se deja como esta.
+     * Igual que {@link #migrateLegacyFile}, no escribe la cabecera.
+     */
+    static void importColors(Path dir, ChunkPos pos, int[] colors) throws IOException {
+        if (ExploredIndex.forDir(dir).contains(pos)) {
+            return;
+        }
+        MapTile tile = new MapTile();
+        System.arraycopy(colors, 0, tile.colors, 0, ChunkSnapshot.COLUMNS);
+        writeMigrated(dir, pos, tile);
+    }
+
+    private static void writeMigrated(Path dir, ChunkPos pos, MapTile tile) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+        encode(tile, new DataOutputStream(buffer));
+        // Los gzip de EbzWorldMap pueden llegar antes de que exista el directorio
+        Files.createDirectories(dir);
+        RegionFileCache.forDir(dir).write(pos, buffer.toByteArray(), buffer.size());
+        ExploredIndex.forDir(dir).mark(pos);
+    }
+
+    private static int readInt(InputStream is) throws IOException {
+        return (is.read() << 24) | (is.read() << 16) | (is.read() << 8) | is.read();
+    }
+}
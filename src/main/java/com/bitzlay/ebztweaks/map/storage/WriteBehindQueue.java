@@ -0,0 +1,121 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import com.bitzlay.ebztweaks.EbzTweaks;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Escrituras a disco diferidas y agrupadas por clave (chunk o region): si la misma clave se
+ * guarda varias veces antes del siguiente vaciado solo se escribe la ultima. Se vacia cada
+ * {@link #FLUSH_INTERVAL_MS}, al acumular {@link #MAX_PENDING} claves y al cerrar.
+ */
+public class WriteBehindQueue {
+    private static final long FLUSH_INTERVAL_MS = 5000;
+    private static final int MAX_PENDING = 256;
+    // Cerrojos repartidos por clave: la misma clave siempre cae en el mismo
+    private static final int LOCK_STRIPES = 64;
+
+    // Un solo hilo para todas las colas: las escrituras son cortas y asi no compiten por el disco
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "EbzMap-WriteBehind");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String name;
+    private final Runnable afterBatch;
+    private final Map<Object, Runnable> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ScheduledFuture<?> timer;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * @param afterBatch se ejecuta tras cada vaciado con escrituras (p. ej. las cabeceras); puede ser {@code null}
+     */
+    public WriteBehindQueue(String name, Runnable afterBatch) {
+        this.name = name;
+        this.afterBatch = afterBatch;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.timer = FLUSHER.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Programa la escritura de {@code key}, sustituyendo la que hubiera pendiente.
+     */
+    public void submit(Object key, Runnable write) {
+        pending.put(key, write);
+        if (pending.size() >= MAX_PENDING && flushQueued.compareAndSet(false, true)) {
+            FLUSHER.execute(() -> {
+                flushQueued.set(false);
+                flush();
+            });
+        }
+    }
+
+    public boolean isPending(Object key) {
+        return pending.containsKey(key);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Escribe ya la entrada de {@code key}, si la hay, en el hilo que llama. Para leer del
+     * disco algo que puede estar aun en la cola. Las escrituras de una misma clave no se
+     * solapan: si otro hilo esta escribiendo una version anterior se espera a que acabe, asi
+     * la ultima en terminar es siempre la mas reciente.
+     */
+    public void flush(Object key) {
+        synchronized (locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)]) {
+            Runnable write = pending.remove(key);
+            if (write != null) {
+                run(key, write);
+            }
+        }
+    }
+
+    /**
+     * Escribe todo lo pendiente en el hilo que llama.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (Object key : new ArrayList<>(pending.keySet())) {
+            flush(key);
+        }
+        if (afterBatch != null) {
+            try {
+                afterBatch.run();
+            } catch (Exception e) {
+                EbzTweaks.LOGGER.error("Error terminando escrituras de " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Deja de vaciar periodicamente y escribe lo que quede.
+     */
+    public void close() {
+        timer.cancel(false);
+        flush();
+    }
+
+    private void run(Object key, Runnable write) {
+        try {
+            write.run();
+        } catch (Exception e) {
+            EbzTweaks.LOGGER.error("Error escribiendo " + name + " " + key, e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LodPyramidTest {
+
+    @Test
+    void levelZeroWhileEachBlockGetsAPixel() {
+        assertEquals(0, LodPyramid.getLevel(4.0));
+        assertEquals(0, LodPyramid.getLevel(1.0));
+        assertEquals(0, LodPyramid.getLevel(0.51));
+    }
+
+    @Test
+    void levelChangesExactlyAtPowersOfTwo() {
+        assertEquals(1, LodPyramid.getLevel(0.5));
+        assertEquals(1, LodPyramid.getLevel(0.26));
+        assertEquals(2, LodPyramid.getLevel(0.25));
+        assertEquals(3, LodPyramid.getLevel(0.125));
+    }
+
+    @Test
+    void levelStopsAtMax() {
+        assertEquals(LodPyramid.MAX_LEVEL, LodPyramid.getLevel(1.0 / (1 << LodPyramid.MAX_LEVEL)));
+        assertEquals(LodPyramid.MAX_LEVEL, LodPyramid.getLevel(0.0001));
+    }
+
+    @Test
+    void tileBlocksDoublePerLevel() {
+        assertEquals(RegionTexture.SIZE, LodPyramid.getTileBlocks(0));
+        assertEquals(RegionTexture.SIZE * 8, LodPyramid.getTileBlocks(3));
+    }
+
+    @Test
+    void averageOfOpaqueColorsIsPerChannel() {
+        int average = LodPyramid.averageColors(0xFF000000, 0xFFFF0000, 0xFF00FF00, 0xFF0000FF);
+
+        assertEquals(0xFF3F3F3F, average);
+    }
+
+    @Test
+    void transparentPixelsDoNotDarkenTheAverage() {
+        assertEquals(0xFF808080, LodPyramid.averageColors(0xFF808080, 0, 0, 0));
+        assertEquals(0xFF406080, LodPyramid.averageColors(0, 0xFF204060, 0, 0xFF6080A0));
+    }
+
+    @Test
+    void allTransparentStaysTransparent() {
+        assertEquals(0, LodPyramid.averageColors(0, 0, 0, 0));
+        assertEquals(0, LodPyramid.averageColors(0x00FFFFFF, 0, 0x00123456, 0));
+    }
+}
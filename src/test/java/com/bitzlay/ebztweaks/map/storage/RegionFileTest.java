@@ -0,0 +1,116 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegionFileTest {
+    private static final int SECTOR = RegionFile.SECTOR_SIZE;
+    // La tabla ocupa los primeros sectores
+    private static final int HEADER = 4 * SECTOR;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesAppendAfterTheHeader() throws IOException {
+        Path file = dir.resolve(RegionFile.getFileName(0, 0));
+        try (RegionFile region = new RegionFile(file)) {
+            byte[] first = data(100, 1);
+            byte[] second = data(SECTOR + 10, 2);
+            region.write(0, first, first.length);
+            region.write(1, second, second.length);
+
+            // Un sector para el primero; el segundo, con su longitud delante, empieza en el siguiente
+            assertEquals(HEADER + SECTOR + 4 + second.length, Files.size(file));
+            assertArrayEquals(first, region.read(0));
+            assertArrayEquals(second, region.read(1));
+            assertNull(region.read(2));
+        }
+    }
+
+    @Test
+    void growingChunkMovesAndFlushFreesOldSectors() throws IOException {
+        Path file = dir.resolve(RegionFile.getFileName(0, 0));
+        try (RegionFile region = new RegionFile(file)) {
+            byte[] small = data(100, 1);
+            region.write(0, small, small.length);
+            region.write(1, small, small.length);
+
+            // No cabe en su sector: se va al final y su sector queda liberado
+            byte[] grown = data(SECTOR * 2 - 4, 2);
+            region.write(0, grown, grown.length);
+            long afterGrow = Files.size(file);
+            assertEquals(HEADER + 4 * SECTOR, afterGrow);
+
+            // Antes del flush la tabla en disco aun apunta al sector viejo: no se reutiliza
+            byte[] third = data(100, 3);
+            region.write(2, third, third.length);
+            long beforeFlush = Files.size(file);
+            assertEquals(HEADER + 4 * SECTOR + 4 + third.length, beforeFlush);
+
+            region.flush();
+            byte[] fourth = data(100, 4);
+            region.write(3, fourth, fourth.length);
+            assertEquals(beforeFlush, Files.size(file));
+
+            assertArrayEquals(grown, region.read(0));
+            assertArrayEquals(small, region.read(1));
+            assertArrayEquals(third, region.read(2));
+            assertArrayEquals(fourth, region.read(3));
+        }
+    }
+
+    @Test
+    void shrinkingChunkStaysInPlace() throws IOException {
+        Path file = dir.resolve(RegionFile.getFileName(0, 0));
+        try (RegionFile region = new RegionFile(file)) {
+            byte[] large = data(SECTOR * 3 - 4, 1);
+            region.write(0, large, large.length);
+            byte[] small = data(50, 2);
+            region.write(0, small, small.length);
+            region.flush();
+
+            // Los dos sectores que sobran se reutilizan
+            byte[] other = data(SECTOR * 2 - 4, 3);
+            region.write(1, other, other.length);
+            assertEquals(HEADER + 3 * SECTOR, Files.size(file));
+            assertArrayEquals(small, region.read(0));
+            assertArrayEquals(other, region.read(1));
+        }
+    }
+
+    @Test
+    void closeWritesTheHeader() throws IOException {
+        Path file = dir.resolve(RegionFile.getFileName(-1, 2));
+        byte[] chunk = data(300, 7);
+        try (RegionFile region = new RegionFile(file)) {
+            region.write(33, chunk, chunk.length);
+        }
+
+        long[] present = RegionFile.readPresentChunks(file);
+        assertEquals(1L << 33, present[0]);
+        try (RegionFile region = new RegionFile(file)) {
+            assertTrue(region.hasChunk(33));
+            assertTrue(region.getPresentChunks().get(33));
+            assertArrayEquals(chunk, region.read(33));
+        }
+    }
+
+    private static byte[] data(int length, int seed) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) seed);
+        data[0] = (byte) (seed + 100);
+        data[length - 1] = (byte) (seed + 50);
+        return data;
+    }
+}
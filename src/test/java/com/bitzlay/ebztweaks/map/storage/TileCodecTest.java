@@ -0,0 +1,87 @@
+package com.bitzlay.ebztweaks.map.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileCodecTest {
+    private static final int PIXELS = 16 * 16;
+
+    @Test
+    void uniformTileRoundTrips() throws IOException {
+        int[] pixels = new int[PIXELS];
+        Arrays.fill(pixels, 0xFF336699);
+
+        assertRoundTrip(pixels, null);
+    }
+
+    @Test
+    void transparentTileRoundTrips() throws IOException {
+        assertRoundTrip(new int[PIXELS], null);
+    }
+
+    @Test
+    void twoColorTileRoundTrips() throws IOException {
+        int[] pixels = new int[PIXELS];
+        for (int i = 0; i < PIXELS; i++) {
+            pixels[i] = (i / 3) % 2 == 0 ? 0xFF000000 : 0xFFFFFFFF;
+        }
+
+        assertRoundTrip(pixels, null);
+    }
+
+    @Test
+    void fullPaletteTileRoundTrips() throws IOException {
+        // Todos distintos: el mayor numero de bits por indice
+        int[] pixels = new int[RegionTexture.SIZE * RegionTexture.SIZE];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | i * 31;
+        }
+
+        assertRoundTrip(pixels, null);
+    }
+
+    @Test
+    void planeRoundTrips() throws IOException {
+        int[] pixels = new int[PIXELS];
+        byte[] plane = new byte[PIXELS];
+        for (int i = 0; i < PIXELS; i++) {
+            pixels[i] = i % 5 == 0 ? 0xFF7F7F7F : 0xFF204060;
+            plane[i] = (byte) (i * 7);
+        }
+
+        assertRoundTrip(pixels, plane);
+    }
+
+    @Test
+    void planeIsIgnoredWhenNotRequested() throws IOException {
+        int[] pixels = new int[PIXELS];
+        Arrays.fill(pixels, 0xFF112233);
+        byte[] encoded = TileCodec.encode(pixels, new byte[PIXELS]);
+
+        int[] decoded = new int[PIXELS];
+        assertTrue(TileCodec.decode(encoded, decoded, null));
+        assertArrayEquals(pixels, decoded);
+    }
+
+    private static void assertRoundTrip(int[] pixels, byte[] plane) throws IOException {
+        byte[] encoded = TileCodec.encode(pixels, plane);
+
+        int[] decoded = new int[pixels.length];
+        byte[] decodedPlane = plane != null ? new byte[plane.length] : null;
+        boolean hasPlane = TileCodec.decode(encoded, decoded, decodedPlane);
+
+        assertArrayEquals(pixels, decoded);
+        if (plane != null) {
+            assertTrue(hasPlane);
+            assertArrayEquals(plane, decodedPlane);
+        } else {
+            assertFalse(hasPlane);
+        }
+    }
+}